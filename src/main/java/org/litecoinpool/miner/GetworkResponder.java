@@ -0,0 +1,159 @@
+package org.litecoinpool.miner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * Loopback getwork server that hands out the same work every time and accepts every share.
+ * Long polls are answered with the work again after a fixed delay, so they also look like new
+ * blocks.  Lets the full mining path run without a pool, for warming up and in tests.
+ */
+class GetworkResponder implements Runnable {
+  private static final String LONG_POLL_PATH = "/LP";
+  private static final Pattern submitPattern = Pattern.compile("\"params\"\\s*:\\s*\\[\\s*\"");
+
+  private final ServerSocket serverSocket;
+  private final String workContent;
+  private final long longPollDelay; // ms
+  private final List<Socket> sockets = new ArrayList<Socket>(); // only accessed when synchronized to this
+  private final AtomicInteger submits = new AtomicInteger(0);
+
+  // target is little-endian
+  public GetworkResponder(byte[] target, long longPollMillis) throws IOException {
+    serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    workContent = "{\"result\": {\"data\": \"" + Work.byteArrayToHexString(new byte[128]) +
+                    "\", \"target\": \"" + Work.byteArrayToHexString(target) +
+                    "\"}, \"error\": null, \"id\": 0}";
+    longPollDelay = longPollMillis;
+  }
+
+  public void start() {
+    Thread t = new Thread(this, "GetworkResponder");
+    t.setDaemon(true);
+    t.start();
+  }
+
+  public URL getUrl() {
+    try {
+      return new URL("http://127.0.0.1:" + serverSocket.getLocalPort() + "/");
+    } catch (MalformedURLException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public int getSubmitCount() {
+    return submits.get();
+  }
+
+  public void close() {
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      ExceptionUtils.handleException(e);
+    }
+    synchronized (this) {
+      for (Socket s : sockets) {
+        try {
+          s.close();
+        } catch (IOException e) {
+          // ignored
+        }
+      }
+      sockets.clear();
+    }
+  }
+
+  @Override
+  public void run() {
+    while (! serverSocket.isClosed()) {
+      try {
+        final Socket s = serverSocket.accept();
+        synchronized (this) {
+          sockets.add(s);
+        }
+        Thread t = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            handle(s);
+          }
+        }, "GetworkResponder connection");
+        t.setDaemon(true);
+        t.start();
+      } catch (IOException e) {
+        if (! serverSocket.isClosed()) {
+          ExceptionUtils.handleException(e);
+        }
+      }
+    }
+  }
+
+  // answers keep-alive HTTP/1.1 requests one after another until the client closes
+  private void handle(Socket s) {
+    try {
+      s.setTcpNoDelay(true);
+      BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), "US-ASCII"));
+      OutputStream out = s.getOutputStream();
+      String requestLine;
+      while ((requestLine = in.readLine()) != null) {
+        int contentLength = 0;
+        String line;
+        while ((line = in.readLine()) != null && line.length() > 0) {
+          if (line.toLowerCase().startsWith("content-length:")) {
+            contentLength = Integer.parseInt(line.substring(15).trim());
+          }
+        }
+        char[] body = new char[contentLength];
+        for (int read = 0; read < contentLength; ) {
+          int n = in.read(body, read, contentLength - read);
+          if (n < 0) {
+            return;
+          }
+          read += n;
+        }
+
+        String content;
+        if (submitPattern.matcher(new String(body)).find()) {
+          submits.incrementAndGet();
+          content = "{\"result\": true, \"error\": null, \"id\": 1}";
+        } else {
+          if (requestLine.contains(" " + LONG_POLL_PATH + " ")) {
+            Thread.sleep(longPollDelay);
+          }
+          content = workContent;
+        }
+        String response = "HTTP/1.1 200 OK\r\n" +
+                            "Content-Type: application/json\r\n" +
+                            "Content-Length: " + content.length() + "\r\n" +
+                            "X-Long-Polling: " + LONG_POLL_PATH + "\r\n\r\n" + content;
+        out.write(response.getBytes("US-ASCII"));
+        out.flush();
+      }
+    } catch (IOException e) {
+      // client went away
+    } catch (InterruptedException e) {
+      // let thread exit
+    } finally {
+      try {
+        s.close();
+      } catch (IOException e) {
+        // ignored
+      }
+      synchronized (this) {
+        sockets.remove(s);
+      }
+    }
+  }
+}
@@ -2,20 +2,48 @@ package org.litecoinpool.miner;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.IntBuffer;
 import java.security.GeneralSecurityException;
 
 import static java.lang.System.arraycopy;
 import static java.lang.Integer.rotateLeft;
 
 public class Hasher {
+  // enough hashes for the JIT to compile xorSalsa8 and hash
+  public static final int WARMUP_HASHES = 32;
+  public static final int SCRATCHPAD_INTS = 32 * 1024;
+  private static final byte[] WARMUP_HEADER = new byte[80];
+  
   private Mac mac;
   private byte[] H = new byte[32];
   private byte[] B = new byte[128 + 4];
   private int[] X = new int[32];
-  private int[] V = new int[32 * 1024];
+  private int[] V = null;
+  private IntBuffer VB = null; // used instead of V when the scratchpad is off-heap
+  private int[] Y = null; // block read back from VB
   
   public Hasher() throws GeneralSecurityException {
+    this(null);
+  }
+  
+  // scratchpad may be null to use an on-heap array
+  public Hasher(IntBuffer scratchpad) throws GeneralSecurityException {
     mac = Mac.getInstance("HmacSHA256");
+    if (scratchpad == null) {
+      V = new int[SCRATCHPAD_INTS];
+    } else if (scratchpad.capacity() < SCRATCHPAD_INTS) {
+      throw new IllegalArgumentException("Scratchpad too small: " + scratchpad.capacity());
+    } else {
+      VB = scratchpad;
+      Y = new int[32];
+    }
+  }
+  
+  // hashes a dummy header, which also touches the whole scratchpad
+  public void warmUp(int count) throws GeneralSecurityException {
+    for (int i = 0; i < count; i++) {
+      hash(WARMUP_HEADER, i);
+    }
   }
   
   public byte[] hash(byte[] header, int nonce) throws GeneralSecurityException {
@@ -49,18 +77,37 @@ public class Hasher {
       }
     }
     
-    for (int i = 0; i < 1024; i++) {
-      arraycopy(X, 0, V, i * 32, 32);
-      xorSalsa8(0, 16);
-      xorSalsa8(16, 0);
-    }
-    for (int i = 0; i < 1024; i++) {
-      int k = (X[16] & 1023) * 32;
-      for (int j = 0; j < 32; j++) {
-        X[j] ^= V[k + j];
+    if (VB == null) {
+      for (int i = 0; i < 1024; i++) {
+        arraycopy(X, 0, V, i * 32, 32);
+        xorSalsa8(0, 16);
+        xorSalsa8(16, 0);
+      }
+      for (int i = 0; i < 1024; i++) {
+        int k = (X[16] & 1023) * 32;
+        for (int j = 0; j < 32; j++) {
+          X[j] ^= V[k + j];
+        }
+        xorSalsa8(0, 16);
+        xorSalsa8(16, 0);
+      }
+    } else {
+      // bulk transfers copy a block at a time instead of checking bounds on every int
+      VB.clear();
+      for (int i = 0; i < 1024; i++) {
+        VB.put(X, 0, 32);
+        xorSalsa8(0, 16);
+        xorSalsa8(16, 0);
+      }
+      for (int i = 0; i < 1024; i++) {
+        VB.position((X[16] & 1023) * 32);
+        VB.get(Y, 0, 32);
+        for (int j = 0; j < 32; j++) {
+          X[j] ^= Y[j];
+        }
+        xorSalsa8(0, 16);
+        xorSalsa8(16, 0);
       }
-      xorSalsa8(0, 16);
-      xorSalsa8(16, 0);
     }
     
     for (int i = 0; i < 32; i++) {
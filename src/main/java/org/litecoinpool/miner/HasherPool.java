@@ -0,0 +1,74 @@
+package org.litecoinpool.miner;
+
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Pool of {@link Hasher}s so their scratchpads are allocated once and reused by whichever
+ * hashing thread needs one, rather than allocated per worker thread.  A borrowed hasher
+ * must only be used by one thread at a time.  A thread gets back the hasher it used last
+ * whenever that one is idle, keeping its scratchpad in the same cache and NUMA node.  With
+ * a {@link ScratchpadArena} a thread never takes over another live thread's hasher, it
+ * allocates its own instead.
+ */
+public class HasherPool {
+  private final ConcurrentLinkedQueue<Hasher> idle = new ConcurrentLinkedQueue<Hasher>();
+  private final ThreadLocal<Hasher> lastBorrowed = new ThreadLocal<Hasher>();
+  private final ScratchpadArena arena;
+  private final Map<Hasher, Thread> owners = new ConcurrentHashMap<Hasher, Thread>(); // only used with an arena
+
+  public HasherPool(int preallocate) throws GeneralSecurityException {
+    arena = null;
+    for (int i = 0; i < preallocate; i++) {
+      idle.add(new Hasher());
+    }
+  }
+
+  // off-heap scratchpads are allocated by the borrowing thread rather than up front
+  public HasherPool(ScratchpadArena arena) {
+    this.arena = arena;
+  }
+
+  // returns an idle hasher, or a new one if none are idle
+  public Hasher borrow() throws GeneralSecurityException {
+    Hasher h = lastBorrowed.get();
+    if (h == null || ! idle.remove(h)) {
+      if (arena == null) {
+        h = idle.poll();
+        if (h == null) {
+          h = new Hasher();
+        }
+      } else {
+        h = borrowOwned();
+      }
+      lastBorrowed.set(h);
+    }
+    return h;
+  }
+
+  // off-heap hashers only go to the thread that allocated them, or to any thread once that
+  // thread has died, so a scratchpad is not handed to a thread on another NUMA node
+  private Hasher borrowOwned() throws GeneralSecurityException {
+    Thread current = Thread.currentThread();
+    for (Hasher h : idle) {
+      Thread owner = owners.get(h);
+      if ((owner == current || ! owner.isAlive()) && idle.remove(h)) {
+        owners.put(h, current);
+        return h;
+      }
+    }
+    Hasher h = new Hasher(arena.allocate());
+    owners.put(h, current);
+    return h;
+  }
+
+  public void release(Hasher h) {
+    idle.add(h);
+  }
+
+  public int getIdleCount() {
+    return idle.size();
+  }
+}
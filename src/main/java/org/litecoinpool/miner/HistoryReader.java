@@ -0,0 +1,99 @@
+package org.litecoinpool.miner;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Command line tool to dump or summarize a {@link HistoryRing} file, it can be run while the
+ * miner is still writing to it.
+ */
+public class HistoryReader {
+  private static final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+  
+  public static void main(String[] args) {
+    if (args.length < 1 || args[0].equals("--help")) {
+      System.out.println("Usage:  java HistoryReader FILE [--summary]");
+      return;
+    }
+    
+    List<HistoryRing.Record> records;
+    try {
+      records = HistoryRing.openForReading(new File(args[0])).read();
+    } catch (IOException e) {
+      System.out.println(e.getMessage());
+      System.exit(1);
+      return;
+    }
+    
+    if (args.length > 1 && args[1].equals("--summary")) {
+      summarize(records);
+    } else {
+      dump(records);
+    }
+  }
+  
+  private static void dump(List<HistoryRing.Record> records) {
+    System.out.println("time                 khash/s  accepted  rejected  fetches  fetch ms  idle ms  thread hashes");
+    for (HistoryRing.Record r : records) {
+      StringBuilder threads = new StringBuilder();
+      for (long h : r.getThreadHashes()) {
+        threads.append(' ').append(h);
+      }
+      System.out.println(String.format("%s  %7.2f  %8d  %8d  %7d  %8d  %7d %s", 
+                                       dateFormat.format(new Date(r.getTime())), 
+                                       speed(r.getHashes(), r.getIntervalMillis()), 
+                                       r.getAcceptedShares(), r.getRejectedShares(), 
+                                       r.getWorkFetches(), averageFetchMillis(r.getWorkFetchMillis(), 
+                                                                             r.getWorkFetches()), 
+                                       r.getIdleMillis(), threads));
+    }
+  }
+  
+  private static void summarize(List<HistoryRing.Record> records) {
+    if (records.isEmpty()) {
+      System.out.println("No records");
+      return;
+    }
+    long hashes = 0;
+    long millis = 0;
+    long accepted = 0;
+    long rejected = 0;
+    long fetches = 0;
+    long fetchMillis = 0;
+    long idleMillis = 0;
+    double minSpeed = Double.MAX_VALUE;
+    double maxSpeed = 0;
+    for (HistoryRing.Record r : records) {
+      double speed = speed(r.getHashes(), r.getIntervalMillis());
+      minSpeed = Math.min(minSpeed, speed);
+      maxSpeed = Math.max(maxSpeed, speed);
+      hashes += r.getHashes();
+      millis += r.getIntervalMillis();
+      accepted += r.getAcceptedShares();
+      rejected += r.getRejectedShares();
+      fetches += r.getWorkFetches();
+      fetchMillis += r.getWorkFetchMillis();
+      idleMillis += r.getIdleMillis();
+    }
+    System.out.println("Records:          " + records.size());
+    System.out.println("From:             " + dateFormat.format(new Date(records.get(0).getTime())));
+    System.out.println("To:               " + dateFormat.format(new Date(records.get(records.size() - 1).getTime())));
+    System.out.println(String.format("Hashrate:         %.2f khash/s (min %.2f, max %.2f)", 
+                                     speed(hashes, millis), minSpeed, maxSpeed));
+    System.out.println("Shares:           " + accepted + " accepted, " + rejected + " rejected");
+    System.out.println("Work fetches:     " + fetches + ", " + averageFetchMillis(fetchMillis, fetches) + " ms average");
+    System.out.println("Idle:             " + idleMillis + " ms over all threads");
+  }
+  
+  private static double speed(long hashes, long millis) {
+    return (double) hashes / Math.max(1, millis);
+  }
+  
+  private static long averageFetchMillis(long fetchMillis, long fetches) {
+    return fetches == 0 ? 0 : fetchMillis / fetches;
+  }
+}
@@ -0,0 +1,66 @@
+package org.litecoinpool.miner;
+
+import org.threadly.util.Clock;
+
+/**
+ * Appends a {@link HistoryRing.Record} with the activity of a {@link Worker} since the previous
+ * run each time it is run.  Meant to be scheduled at a fixed interval.
+ *
+ * Only workers with hashing threads of their own are supported, the hashes of workers
+ * driven by a {@link MiningEngine} are not counted per thread.
+ */
+public class HistoryRecorder implements Runnable {
+  private final Worker worker;
+  private final HistoryRing ring;
+  private final long[] lastThreadHashes;
+  private long lastTime;
+  private long lastAcceptedShares;
+  private long lastRejectedShares;
+  private long lastWorkFetches;
+  private long lastWorkFetchMillis;
+  private long lastIdleMillis;
+  
+  public HistoryRecorder(Worker worker, HistoryRing ring) {
+    if (worker.getThreadCount() < 1) {
+      throw new IllegalArgumentException("Worker has no hashing threads of its own");
+    } else if (ring.getThreadCount() != worker.getThreadCount()) {
+      throw new IllegalArgumentException("History has " + ring.getThreadCount() + 
+                                           " threads, worker has " + worker.getThreadCount());
+    }
+    
+    this.worker = worker;
+    this.ring = ring;
+    this.lastThreadHashes = new long[worker.getThreadCount()];
+    this.lastTime = Clock.lastKnownTimeMillis();
+  }
+  
+  @Override
+  public synchronized void run() {
+    long now = Clock.lastKnownTimeMillis();
+    long[] threadHashes = new long[lastThreadHashes.length];
+    for (int i = 0; i < threadHashes.length; i++) {
+      long hashes = worker.getThreadHashes(i);
+      threadHashes[i] = hashes - lastThreadHashes[i];
+      lastThreadHashes[i] = hashes;
+    }
+    long accepted = worker.getAcceptedShares();
+    long rejected = worker.getRejectedShares();
+    long fetches = worker.getWorkFetches();
+    long fetchMillis = worker.getWorkFetchMillis();
+    long idleMillis = worker.getIdleMillis();
+    
+    ring.append(new HistoryRing.Record(now, (int) (now - lastTime), threadHashes, 
+                                       (int) (accepted - lastAcceptedShares), 
+                                       (int) (rejected - lastRejectedShares), 
+                                       (int) (fetches - lastWorkFetches), 
+                                       (int) (fetchMillis - lastWorkFetchMillis), 
+                                       (int) (idleMillis - lastIdleMillis)));
+    
+    lastTime = now;
+    lastAcceptedShares = accepted;
+    lastRejectedShares = rejected;
+    lastWorkFetches = fetches;
+    lastWorkFetchMillis = fetchMillis;
+    lastIdleMillis = idleMillis;
+  }
+}
@@ -0,0 +1,253 @@
+package org.litecoinpool.miner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Fixed size, memory-mapped ring file of per-interval mining records.  Appending only writes to
+ * the mapped pages, so it never makes a system call, and the records survive restarts.  Once
+ * the ring is full the oldest record is overwritten.
+ *
+ * Each record carries its sequence number at the start, which is cleared while the record is
+ * being written, so readers can skip a record they catch mid-write.
+ */
+public class HistoryRing {
+  private static final int MAGIC = 0x4A4D4852; // "JMHR"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 64;
+  private static final int WRITE_COUNT_OFFSET = 24;
+  private static final int RECORD_FIXED_SIZE = 40;
+
+  // reuses the existing file, which must have the same layout, or starts a new ring in an
+  // empty file, any other file is left alone so history is never lost by accident
+  public static HistoryRing open(File file, int capacity, int threadCount) throws IOException {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Invalid capacity: " + capacity);
+    } else if (threadCount < 0) {
+      throw new IllegalArgumentException("Invalid number of threads: " + threadCount);
+    }
+
+    int recordSize = RECORD_FIXED_SIZE + (threadCount * 8);
+    long size = HEADER_SIZE + ((long) capacity * recordSize);
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      boolean reuse = raf.length() > 0;
+      if (reuse) {
+        if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC) {
+          throw new IOException("Not a history file: " + file);
+        }
+        int version = raf.readInt();
+        raf.readInt(); // record size, follows from the thread count
+        int fileCapacity = raf.readInt();
+        int fileThreadCount = raf.readInt();
+        if (version != VERSION || fileCapacity != capacity || fileThreadCount != threadCount ||
+            raf.length() != size) {
+          throw new IOException("History file " + file + " holds " + fileCapacity + 
+                                  " records of " + fileThreadCount + " threads, expected " + 
+                                  capacity + " records of " + threadCount + " threads");
+        }
+      } else {
+        raf.setLength(size);
+      }
+      MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      if (reuse) {
+        return new HistoryRing(buf, capacity, threadCount);
+      }
+      for (int i = 0; i < size; i += 8) {
+        buf.putLong(i, 0L);
+      }
+      buf.putInt(4, VERSION);
+      buf.putInt(8, recordSize);
+      buf.putInt(12, capacity);
+      buf.putInt(16, threadCount);
+      buf.putLong(WRITE_COUNT_OFFSET, 0L);
+      buf.putInt(0, MAGIC);
+      return new HistoryRing(buf, capacity, threadCount);
+    } finally {
+      raf.close(); // the mapping stays valid after the file is closed
+    }
+  }
+
+  public static HistoryRing openForReading(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+      if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+        throw new IOException("Not a history file: " + file);
+      } else if (buf.getInt(4) != VERSION) {
+        throw new IOException("Unsupported history file version: " + buf.getInt(4));
+      }
+      int capacity = buf.getInt(12);
+      int threadCount = buf.getInt(16);
+      if (buf.getInt(8) != RECORD_FIXED_SIZE + (threadCount * 8) ||
+          buf.capacity() < HEADER_SIZE + ((long) capacity * buf.getInt(8))) {
+        throw new IOException("Corrupt history file: " + file);
+      }
+      return new HistoryRing(buf, capacity, threadCount);
+    } finally {
+      raf.close();
+    }
+  }
+
+  private final MappedByteBuffer buf;
+  private final int capacity;
+  private final int threadCount;
+  private final int recordSize;
+
+  private HistoryRing(MappedByteBuffer buf, int capacity, int threadCount) {
+    this.buf = buf;
+    this.capacity = capacity;
+    this.threadCount = threadCount;
+    this.recordSize = RECORD_FIXED_SIZE + (threadCount * 8);
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int getThreadCount() {
+    return threadCount;
+  }
+
+  public synchronized void append(Record r) {
+    if (r.threadHashes.length != threadCount) {
+      throw new IllegalArgumentException("Expected " + threadCount + " thread counts, got " +
+                                           r.threadHashes.length);
+    }
+    long sequence = buf.getLong(WRITE_COUNT_OFFSET) + 1;
+    int pos = HEADER_SIZE + (int) ((sequence - 1) % capacity) * recordSize;
+    buf.putLong(pos, 0L); // mark as being written
+    buf.putLong(pos + 8, r.time);
+    buf.putInt(pos + 16, r.intervalMillis);
+    buf.putInt(pos + 20, r.acceptedShares);
+    buf.putInt(pos + 24, r.rejectedShares);
+    buf.putInt(pos + 28, r.workFetches);
+    buf.putInt(pos + 32, r.workFetchMillis);
+    buf.putInt(pos + 36, r.idleMillis);
+    for (int i = 0; i < threadCount; i++) {
+      buf.putLong(pos + RECORD_FIXED_SIZE + (i * 8), r.threadHashes[i]);
+    }
+    buf.putLong(pos, sequence);
+    buf.putLong(WRITE_COUNT_OFFSET, sequence);
+  }
+
+  // returns the records currently in the ring, oldest first
+  public List<Record> read() {
+    List<Record> records = new ArrayList<Record>(capacity);
+    for (int i = 0; i < capacity; i++) {
+      int pos = HEADER_SIZE + (i * recordSize);
+      long sequence = buf.getLong(pos);
+      if (sequence == 0L) {
+        continue;
+      }
+      long[] threadHashes = new long[threadCount];
+      for (int j = 0; j < threadCount; j++) {
+        threadHashes[j] = buf.getLong(pos + RECORD_FIXED_SIZE + (j * 8));
+      }
+      Record r = new Record(sequence, buf.getLong(pos + 8), buf.getInt(pos + 16),
+                            threadHashes, buf.getInt(pos + 20), buf.getInt(pos + 24),
+                            buf.getInt(pos + 28), buf.getInt(pos + 32), buf.getInt(pos + 36));
+      if (buf.getLong(pos) == sequence) {
+        records.add(r);
+      }
+    }
+    Collections.sort(records, new Comparator<Record>() {
+      @Override
+      public int compare(Record a, Record b) {
+        return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+      }
+    });
+    return records;
+  }
+
+  // flushes the mapped pages to disk, not needed for other processes to see the records
+  public void force() {
+    buf.force();
+  }
+
+  public static class Record {
+    private final long sequence;
+    private final long time;
+    private final int intervalMillis;
+    private final long[] threadHashes;
+    private final int acceptedShares;
+    private final int rejectedShares;
+    private final int workFetches;
+    private final int workFetchMillis;
+    private final int idleMillis;
+
+    public Record(long time, int intervalMillis, long[] threadHashes,
+                  int acceptedShares, int rejectedShares,
+                  int workFetches, int workFetchMillis, int idleMillis) {
+      this(0L, time, intervalMillis, threadHashes, acceptedShares, rejectedShares,
+           workFetches, workFetchMillis, idleMillis);
+    }
+
+    private Record(long sequence, long time, int intervalMillis, long[] threadHashes,
+                   int acceptedShares, int rejectedShares,
+                   int workFetches, int workFetchMillis, int idleMillis) {
+      this.sequence = sequence;
+      this.time = time;
+      this.intervalMillis = intervalMillis;
+      this.threadHashes = threadHashes;
+      this.acceptedShares = acceptedShares;
+      this.rejectedShares = rejectedShares;
+      this.workFetches = workFetches;
+      this.workFetchMillis = workFetchMillis;
+      this.idleMillis = idleMillis;
+    }
+
+    // zero for records that have not been read from a ring
+    public long getSequence() {
+      return sequence;
+    }
+
+    // end of the interval
+    public long getTime() {
+      return time;
+    }
+
+    public int getIntervalMillis() {
+      return intervalMillis;
+    }
+
+    public long[] getThreadHashes() {
+      return threadHashes;
+    }
+
+    public long getHashes() {
+      long total = 0;
+      for (long h : threadHashes) {
+        total += h;
+      }
+      return total;
+    }
+
+    public int getAcceptedShares() {
+      return acceptedShares;
+    }
+
+    public int getRejectedShares() {
+      return rejectedShares;
+    }
+
+    public int getWorkFetches() {
+      return workFetches;
+    }
+
+    public int getWorkFetchMillis() {
+      return workFetchMillis;
+    }
+
+    public int getIdleMillis() {
+      return idleMillis;
+    }
+  }
+}
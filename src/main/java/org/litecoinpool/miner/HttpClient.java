@@ -0,0 +1,755 @@
+package org.litecoinpool.miner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.threadly.util.Clock;
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * Minimal HTTP/1.1 client for JSON-RPC POST requests.  A single I/O thread multiplexes all
+ * connections, which are kept alive per host and reused.  Requests are pipelined onto a
+ * connection once the server has shown it keeps connections alive.  Exclusive requests
+ * (long polling) always get a connection of their own so they never hold up other requests.
+ * Requests that are not idempotent (share submits) are never pipelined or retried, so a
+ * dropped connection can not make the server see them twice.
+ *
+ * Host names are resolved on short lived resolver threads, so a slow lookup for one pool never
+ * holds up the others, and resolved addresses are refreshed in the background.
+ *
+ * Callbacks are invoked on the I/O thread and must not block.
+ */
+public class HttpClient implements Runnable {
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+  private static final int MAX_CONNECTIONS_PER_HOST = 4;
+  private static final int MAX_PIPELINE_DEPTH = 4;
+  private static final long SELECT_TIMEOUT = 250; // ms
+  private static final long IDLE_TIMEOUT = 60 * 1000; // ms
+  private static final long ADDRESS_TTL = 5 * 60 * 1000; // ms
+
+  // proxied URLs are left to HttpURLConnection, which honours http.proxyHost and the like
+  public static boolean supports(URL url) {
+    if (! "http".equalsIgnoreCase(url.getProtocol())) {
+      return false;
+    }
+    ProxySelector ps = ProxySelector.getDefault();
+    if (ps == null) {
+      return true;
+    }
+    try {
+      for (Proxy p : ps.select(url.toURI())) {
+        if (p.type() != Proxy.Type.DIRECT) {
+          return false;
+        }
+      }
+    } catch (URISyntaxException e) {
+      return false;
+    }
+    return true;
+  }
+
+  private final ConcurrentLinkedQueue<Request> newRequests = new ConcurrentLinkedQueue<Request>();
+  private final ConcurrentLinkedQueue<Lookup> completedLookups = new ConcurrentLinkedQueue<Lookup>();
+  private final Map<String, List<Connection>> connections = new HashMap<String, List<Connection>>(); // only accessed from I/O thread
+  private final Map<String, HostAddress> addresses = new HashMap<String, HostAddress>(); // only accessed from I/O thread
+  private volatile Selector selector = null;
+  private volatile boolean running = false;
+  private Thread ioThread = null; // only accessed when synchronized to this
+
+  public synchronized void start() throws IOException {
+    if (running) {
+      return;
+    }
+    if (ioThread != null) {
+      // after a stop the old I/O thread still closes its connections and selector
+      try {
+        ioThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted waiting for the I/O thread to stop");
+      }
+    }
+    selector = Selector.open();
+    running = true;
+    ioThread = new Thread(this, "HttpClient I/O");
+    ioThread.setDaemon(true);
+    ioThread.start();
+  }
+
+  public synchronized void stop() {
+    running = false;
+    if (selector != null) {
+      selector.wakeup();
+    }
+  }
+
+  // blocks until the response is received, throws SocketTimeoutException if it takes longer than the timeout
+  public Response post(URL url, String body, String auth, int timeoutMillis,
+                       boolean idempotent) throws IOException {
+    BlockingCallback cb = new BlockingCallback();
+    post(url, body, auth, timeoutMillis, false, idempotent, cb);
+    try {
+      // the I/O thread enforces the timeout, the extra time here is only a safety net
+      if (! cb.latch.await(timeoutMillis + SELECT_TIMEOUT * 4, TimeUnit.MILLISECONDS)) {
+        throw new SocketTimeoutException("No response from " + url);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting for " + url);
+    }
+    if (cb.failure != null) {
+      throw cb.failure;
+    }
+    return cb.response;
+  }
+
+  // only idempotent requests are pipelined, and retried if a reused connection is closed on them
+  public Request post(URL url, String body, String auth, int timeoutMillis,
+                      boolean exclusive, boolean idempotent, ResponseCallback callback) {
+    if (! supports(url)) {
+      throw new IllegalArgumentException("Unsupported URL: " + url);
+    }
+    Request r = new Request(url, body, auth, timeoutMillis, exclusive, idempotent, callback);
+    if (! running) {
+      r.fail(new IOException("Client not started"));
+      return r;
+    }
+    newRequests.add(r);
+    if (! running) {
+      // stopped while adding, the I/O thread may already have drained the queue
+      IOException e = new IOException("Client stopped");
+      Request queued;
+      while ((queued = newRequests.poll()) != null) {
+        queued.fail(e);
+      }
+    }
+    selector.wakeup();
+    return r;
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (running) {
+        Lookup l;
+        while ((l = completedLookups.poll()) != null) {
+          lookupCompleted(l);
+        }
+        Request r;
+        while ((r = newRequests.poll()) != null) {
+          dispatch(r);
+        }
+        selector.select(SELECT_TIMEOUT);
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          if (! key.isValid()) {
+            continue; // closed while handling an earlier key
+          }
+          Connection c = (Connection) key.attachment();
+          try {
+            if (key.isConnectable()) {
+              c.channel.finishConnect();
+              c.updateInterest();
+            }
+            if (key.isValid() && key.isWritable()) {
+              c.write();
+            }
+            if (key.isValid() && key.isReadable()) {
+              c.read();
+            }
+          } catch (IOException e) {
+            c.close(e);
+          }
+        }
+        checkTimeouts();
+      }
+    } catch (IOException e) {
+      ExceptionUtils.handleException(e);
+    } finally {
+      running = false;
+      IOException e = new IOException("Client stopped");
+      for (List<Connection> l : new ArrayList<List<Connection>>(connections.values())) {
+        for (Connection c : new ArrayList<Connection>(l)) {
+          c.close(e);
+        }
+      }
+      for (HostAddress ha : addresses.values()) {
+        for (Request r : ha.waiting) {
+          r.fail(e);
+        }
+        ha.waiting.clear();
+      }
+      Request r;
+      while ((r = newRequests.poll()) != null) {
+        r.fail(e);
+      }
+      try {
+        selector.close();
+      } catch (IOException ioe) {
+        // ignored
+      }
+    }
+  }
+
+  private void dispatch(Request r) {
+    if (r.cancelled) {
+      r.fail(new IOException("Cancelled"));
+      return;
+    }
+    List<Connection> l = connections.get(r.hostKey);
+    if (l == null) {
+      l = new ArrayList<Connection>(MAX_CONNECTIONS_PER_HOST);
+      connections.put(r.hostKey, l);
+    }
+    Connection best = null;
+    for (Connection c : l) {
+      if (c.closing || c.exclusive) {
+        continue;
+      } else if (c.inFlight.isEmpty()) {
+        best = c;
+        break;
+      } else if (! r.exclusive && c.canPipeline(r) &&
+                 (best == null || c.inFlight.size() < best.inFlight.size())) {
+        best = c;
+      }
+    }
+    if (best != null && ! best.inFlight.isEmpty() && l.size() < MAX_CONNECTIONS_PER_HOST) {
+      best = null; // prefer a fresh connection over queuing behind another request
+    }
+    try {
+      if (best == null) {
+        InetSocketAddress address = getAddress(r);
+        if (address == null) {
+          return; // dispatched again once the host has been resolved
+        }
+        best = new Connection(r.hostKey, address);
+        l.add(best);
+      }
+      best.send(r);
+    } catch (IOException e) {
+      if (best != null) {
+        best.close(e);
+      }
+      r.fail(e);
+    }
+  }
+
+  // returns null and parks the request if the host has not been resolved yet
+  private InetSocketAddress getAddress(Request r) {
+    HostAddress ha = addresses.get(r.hostKey);
+    if (ha == null) {
+      ha = new HostAddress(r.url.getHost(), port(r.url));
+      addresses.put(r.hostKey, ha);
+    }
+    if (ha.address == null) {
+      ha.waiting.add(r);
+      startLookup(ha);
+      return null;
+    } else if (Clock.lastKnownTimeMillis() - ha.resolvedAt > ADDRESS_TTL) {
+      startLookup(ha); // keep using the old address until the refresh completes
+    }
+    return ha.address;
+  }
+
+  private void startLookup(final HostAddress ha) {
+    if (ha.lookingUp) {
+      return;
+    }
+    ha.lookingUp = true;
+    Thread t = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        InetAddress address = null;
+        IOException failure = null;
+        try {
+          address = InetAddress.getByName(ha.host);
+        } catch (IOException e) {
+          failure = e;
+        }
+        completedLookups.add(new Lookup(ha, address, failure));
+        selector.wakeup();
+      }
+    }, "HttpClient resolver");
+    t.setDaemon(true);
+    t.start();
+  }
+
+  private void lookupCompleted(Lookup l) {
+    HostAddress ha = l.host;
+    ha.lookingUp = false;
+    ha.resolvedAt = Clock.lastKnownTimeMillis();
+    if (l.address != null) {
+      ha.address = new InetSocketAddress(l.address, ha.port);
+    }
+    List<Request> waiting = new ArrayList<Request>(ha.waiting);
+    ha.waiting.clear();
+    for (Request r : waiting) {
+      if (ha.address == null) {
+        r.fail(l.failure);
+      } else {
+        dispatch(r);
+      }
+    }
+  }
+
+  private void checkTimeouts() {
+    long now = Clock.lastKnownTimeMillis();
+    for (HostAddress ha : addresses.values()) {
+      Iterator<Request> it = ha.waiting.iterator();
+      while (it.hasNext()) {
+        Request r = it.next();
+        if (r.cancelled) {
+          it.remove();
+          r.fail(new IOException("Cancelled"));
+        } else if (now >= r.deadline) {
+          it.remove();
+          r.fail(new SocketTimeoutException("Timed out resolving " + ha.host));
+        }
+      }
+    }
+    for (List<Connection> l : new ArrayList<List<Connection>>(connections.values())) {
+      for (Connection c : new ArrayList<Connection>(l)) {
+        if (c.inFlight.isEmpty()) {
+          if (now - c.lastUsed > IDLE_TIMEOUT) {
+            c.close(null);
+          }
+          continue;
+        }
+        for (Request r : c.inFlight) {
+          if (r.cancelled) {
+            c.close(new IOException("Cancelled"));
+            break;
+          } else if (now >= r.deadline) {
+            c.close(new SocketTimeoutException("Timed out waiting for " + r.url));
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  private class Connection {
+    private final String hostKey;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final LinkedList<Request> inFlight = new LinkedList<Request>();
+    private final LinkedList<ByteBuffer> pendingWrites = new LinkedList<ByteBuffer>();
+    private byte[] buf = new byte[4096];
+    private int bufLen = 0;
+    private boolean keepAlive = false; // true once the server answered with a persistent response
+    private boolean closing = false;
+    private boolean exclusive = false;
+    private long lastUsed = Clock.lastKnownTimeMillis();
+
+    private Connection(String hostKey, InetSocketAddress address) throws IOException {
+      this.hostKey = hostKey;
+      channel = SocketChannel.open();
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      channel.connect(address);
+      key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+    }
+
+    // never pipelines behind or ahead of a request that is not idempotent
+    private boolean canPipeline(Request r) {
+      if (! keepAlive || ! r.idempotent || inFlight.size() >= MAX_PIPELINE_DEPTH) {
+        return false;
+      }
+      for (Request p : inFlight) {
+        if (! p.idempotent) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void send(Request r) throws ClosedChannelException {
+      inFlight.addLast(r);
+      exclusive = r.exclusive;
+      pendingWrites.addLast(ByteBuffer.wrap(r.bytes));
+      lastUsed = Clock.lastKnownTimeMillis();
+      updateInterest();
+    }
+
+    private void updateInterest() {
+      if (channel.isConnectionPending()) {
+        return;
+      }
+      key.interestOps(pendingWrites.isEmpty() ? SelectionKey.OP_READ :
+                                                SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void write() throws IOException {
+      while (! pendingWrites.isEmpty()) {
+        ByteBuffer b = pendingWrites.getFirst();
+        channel.write(b);
+        if (b.hasRemaining()) {
+          break;
+        }
+        pendingWrites.removeFirst();
+      }
+      updateInterest();
+    }
+
+    private void read() throws IOException {
+      ByteBuffer bb = ByteBuffer.allocate(4096);
+      int n;
+      while ((n = channel.read(bb)) > 0) {
+        bb.flip();
+        if (bufLen + n > buf.length) {
+          byte[] newBuf = new byte[Math.max(buf.length * 2, bufLen + n)];
+          System.arraycopy(buf, 0, newBuf, 0, bufLen);
+          buf = newBuf;
+        }
+        bb.get(buf, bufLen, n);
+        bufLen += n;
+        bb.clear();
+        if (! inFlight.isEmpty()) {
+          inFlight.getFirst().responseStarted = true;
+        }
+      }
+      while (! inFlight.isEmpty() && parseResponse(false)) {
+        // keep handling pipelined responses
+      }
+      if (n < 0) {
+        if (! inFlight.isEmpty()) {
+          parseResponse(true);
+        }
+        close(new IOException("Connection closed by server"));
+      } else if (inFlight.isEmpty() && bufLen > 0) {
+        close(new IOException("Unexpected data from server"));
+      }
+    }
+
+    // returns true if a complete response was consumed from the buffer
+    private boolean parseResponse(boolean eof) throws IOException {
+      int headerEnd = indexOf(buf, bufLen, 0, "\r\n\r\n");
+      if (headerEnd < 0) {
+        return false;
+      }
+      String[] lines = new String(buf, 0, headerEnd, ASCII).split("\r\n");
+      String[] status = lines[0].split(" ", 3);
+      if (status.length < 2 || ! status[0].startsWith("HTTP/")) {
+        throw new IOException("Invalid status line: " + lines[0]);
+      }
+      int code;
+      try {
+        code = Integer.parseInt(status[1]);
+      } catch (NumberFormatException e) {
+        throw new IOException("Invalid status line: " + lines[0]);
+      }
+      Map<String, String> headers = new HashMap<String, String>();
+      for (int i = 1; i < lines.length; i++) {
+        int colon = lines[i].indexOf(':');
+        if (colon > 0) {
+          headers.put(lines[i].substring(0, colon).trim().toLowerCase(),
+                      lines[i].substring(colon + 1).trim());
+        }
+      }
+
+      int bodyStart = headerEnd + 4;
+      byte[] body;
+      int consumed;
+      String transferEncoding = headers.get("transfer-encoding");
+      String contentLength = headers.get("content-length");
+      if (transferEncoding != null && transferEncoding.equalsIgnoreCase("chunked")) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        int pos = bodyStart;
+        while (true) {
+          int lineEnd = indexOf(buf, bufLen, pos, "\r\n");
+          if (lineEnd < 0) {
+            return false;
+          }
+          String sizeLine = new String(buf, pos, lineEnd - pos, ASCII);
+          int semicolon = sizeLine.indexOf(';');
+          int size;
+          try {
+            size = Integer.parseInt((semicolon < 0 ? sizeLine : sizeLine.substring(0, semicolon)).trim(), 16);
+          } catch (NumberFormatException e) {
+            throw new IOException("Invalid chunk size: " + sizeLine);
+          }
+          pos = lineEnd + 2;
+          if (size == 0) {
+            int trailerEnd = indexOf(buf, bufLen, pos - 2, "\r\n\r\n");
+            if (trailerEnd < 0) {
+              return false;
+            }
+            consumed = trailerEnd + 4;
+            break;
+          }
+          if (bufLen < pos + size + 2) {
+            return false;
+          }
+          bos.write(buf, pos, size);
+          pos += size + 2;
+        }
+        body = bos.toByteArray();
+      } else if (contentLength != null) {
+        int length;
+        try {
+          length = Integer.parseInt(contentLength);
+        } catch (NumberFormatException e) {
+          throw new IOException("Invalid Content-Length: " + contentLength);
+        }
+        if (bufLen < bodyStart + length) {
+          return false;
+        }
+        body = new byte[length];
+        System.arraycopy(buf, bodyStart, body, 0, length);
+        consumed = bodyStart + length;
+      } else if (eof) {
+        // body is delimited by the server closing the connection
+        body = new byte[bufLen - bodyStart];
+        System.arraycopy(buf, bodyStart, body, 0, body.length);
+        consumed = bufLen;
+      } else {
+        closing = true;
+        return false;
+      }
+
+      String connection = headers.get("connection");
+      boolean persistent = status[0].equals("HTTP/1.1") ?
+                             ! "close".equalsIgnoreCase(connection) :
+                             "keep-alive".equalsIgnoreCase(connection);
+      if (persistent && ! closing) {
+        keepAlive = true;
+      } else {
+        closing = true;
+      }
+
+      System.arraycopy(buf, consumed, buf, 0, bufLen - consumed);
+      bufLen -= consumed;
+      lastUsed = Clock.lastKnownTimeMillis();
+      Request r = inFlight.removeFirst();
+      if (inFlight.isEmpty()) {
+        exclusive = false;
+      } else if (bufLen > 0) {
+        inFlight.getFirst().responseStarted = true;
+      }
+      r.complete(new Response(code, headers, new String(body)));
+      if (closing && ! inFlight.isEmpty()) {
+        close(new IOException("Connection closed by server"));
+        return false;
+      } else if (closing) {
+        close(null);
+        return false;
+      }
+      return true;
+    }
+
+    private void close(IOException reason) {
+      List<Connection> l = connections.get(hostKey);
+      if (l != null) {
+        l.remove(this);
+      }
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // ignored
+      }
+      boolean reused = keepAlive;
+      while (! inFlight.isEmpty()) {
+        Request r = inFlight.removeFirst();
+        // like HttpURLConnection, retry once if a reused connection was closed before answering
+        if (reused && r.idempotent && ! r.responseStarted && ! r.retried && ! r.cancelled &&
+            ! (reason instanceof SocketTimeoutException)) {
+          r.retried = true;
+          newRequests.add(r);
+        } else {
+          r.fail(reason == null ? new IOException("Connection closed") : reason);
+        }
+      }
+      pendingWrites.clear();
+      bufLen = 0;
+    }
+  }
+
+  private static int port(URL url) {
+    return url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+  }
+
+  private static int indexOf(byte[] buf, int len, int from, String s) {
+    outer: for (int i = from; i <= len - s.length(); i++) {
+      for (int j = 0; j < s.length(); j++) {
+        if (buf[i + j] != s.charAt(j)) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  private static class HostAddress {
+    private final String host;
+    private final int port;
+    private final List<Request> waiting = new ArrayList<Request>(1);
+    private InetSocketAddress address = null;
+    private long resolvedAt = 0L;
+    private boolean lookingUp = false;
+
+    private HostAddress(String host, int port) {
+      this.host = host;
+      this.port = port;
+    }
+  }
+
+  private static class Lookup {
+    private final HostAddress host;
+    private final InetAddress address;
+    private final IOException failure;
+
+    private Lookup(HostAddress host, InetAddress address, IOException failure) {
+      this.host = host;
+      this.address = address;
+      this.failure = failure;
+    }
+  }
+
+  public static class Request {
+    private final URL url;
+    private final String hostKey;
+    private final byte[] bytes;
+    private final long deadline;
+    private final boolean exclusive;
+    private final boolean idempotent;
+    private final ResponseCallback callback;
+    private volatile boolean cancelled = false;
+    private boolean responseStarted = false;
+    private boolean retried = false;
+    private boolean done = false;
+
+    private Request(URL url, String body, String auth, int timeoutMillis,
+                    boolean exclusive, boolean idempotent, ResponseCallback callback) {
+      this.url = url;
+      this.hostKey = url.getHost().toLowerCase() + ':' + port(url);
+      this.deadline = Clock.lastKnownTimeMillis() + timeoutMillis;
+      this.exclusive = exclusive;
+      this.idempotent = idempotent;
+      this.callback = callback;
+
+      byte[] content = body.getBytes();
+      String path = url.getFile().length() == 0 ? "/" : url.getFile();
+      StringBuilder sb = new StringBuilder(256);
+      sb.append("POST ").append(path).append(" HTTP/1.1\r\n");
+      sb.append("Host: ").append(url.getHost());
+      if (url.getPort() >= 0) {
+        sb.append(':').append(url.getPort());
+      }
+      sb.append("\r\n");
+      if (auth != null) {
+        sb.append("Authorization: Basic ").append(Base64.stringToBase64(auth)).append("\r\n");
+      }
+      sb.append("Content-Type: application/json\r\n");
+      sb.append("Content-Length: ").append(content.length).append("\r\n");
+      sb.append("X-Mining-Extensions: midstate\r\n");
+      sb.append("Connection: keep-alive\r\n\r\n");
+      byte[] head = sb.toString().getBytes(ASCII);
+      bytes = new byte[head.length + content.length];
+      System.arraycopy(head, 0, bytes, 0, head.length);
+      System.arraycopy(content, 0, bytes, head.length, content.length);
+    }
+
+    // the callback will be failed once the I/O thread notices the cancellation
+    public void cancel() {
+      cancelled = true;
+    }
+
+    private void complete(Response response) {
+      if (done) {
+        return;
+      }
+      done = true;
+      try {
+        callback.handleResponse(response);
+      } catch (Throwable t) {
+        ExceptionUtils.handleException(t);
+      }
+    }
+
+    private void fail(IOException e) {
+      if (done) {
+        return;
+      }
+      done = true;
+      try {
+        callback.handleFailure(e);
+      } catch (Throwable t) {
+        ExceptionUtils.handleException(t);
+      }
+    }
+  }
+
+  public static class Response {
+    private final int code;
+    private final Map<String, String> headers;
+    private final String content;
+
+    protected Response(int code, Map<String, String> headers, String content) {
+      this.code = code;
+      this.headers = headers;
+      this.content = content;
+    }
+
+    public int getCode() {
+      return code;
+    }
+
+    public String getHeader(String name) {
+      return headers.get(name.toLowerCase());
+    }
+
+    public String getContent() {
+      return content;
+    }
+  }
+
+  public interface ResponseCallback {
+    public void handleResponse(Response response);
+
+    public void handleFailure(IOException e);
+  }
+
+  private static class BlockingCallback implements ResponseCallback {
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private volatile Response response = null;
+    private volatile IOException failure = null;
+
+    @Override
+    public void handleResponse(Response response) {
+      this.response = response;
+      latch.countDown();
+    }
+
+    @Override
+    public void handleFailure(IOException e) {
+      failure = e;
+      latch.countDown();
+    }
+  }
+}
@@ -1,14 +1,21 @@
 package org.litecoinpool.miner;
 
+import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.litecoinpool.miner.Worker.WorkerListener;
 import org.threadly.concurrent.PriorityScheduler;
 import org.threadly.concurrent.SubmitterSchedulerInterface;
+import org.threadly.concurrent.future.FutureUtils;
 import org.threadly.util.Clock;
 import org.threadly.util.ExceptionUtils;
 
@@ -17,10 +24,17 @@ public class Miner implements WorkerListener, Runnable {
   private static final String DEFAULT_AUTH = "rpcuser:rpcpass";
   private static final long DEFAULT_SCAN_TIME = 5000;
   private static final long DEFAULT_RETRY_PAUSE = 30000;
+  private static final long HISTORY_INTERVAL = 60 * 1000; // ms
+  private static final int HISTORY_CAPACITY = 7 * 24 * 60; // a week of intervals
+  private static final long WARMUP_LONG_POLL_DELAY = 500; // ms
+  private static final long WARMUP_TIMEOUT = 60 * 1000; // ms
+  // about one hash in 256 is a share, little-endian
+  private static final byte[] WARMUP_TARGET = Work.hexStringToByteArray(
+      "ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff00");
   
   private static final DateFormat logDateFormat = new SimpleDateFormat("[yyyy-MM-dd HH:mm:ss] ");
   
-  private static void log(String str) {
+  static void log(String str) {
     System.out.println(logDateFormat.format(new Date(Clock.lastKnownTimeMillis())) + str);
   }
   
@@ -31,9 +45,18 @@ public class Miner implements WorkerListener, Runnable {
     int nThread = cpuCount;
     long scanTime = DEFAULT_SCAN_TIME;
     long retryPause = DEFAULT_RETRY_PAUSE;
+    String historyFile = null;
     
     if (args.length > 0 && args[0].equals("--help")) {
-      System.out.println("Usage:  java Miner [URL] [USERNAME:PASSWORD] [THREADS] [SCANTIME] [RETRYPAUSE]");
+      System.out.println("Usage:  java Miner [URL] [USERNAME:PASSWORD] [THREADS] [SCANTIME] [RETRYPAUSE] [HISTORYFILE]");
+      System.out.println("        java Miner --warmup");
+      return;
+    } else if (args.length > 0 && args[0].equals("--warmup")) {
+      try {
+        warmUp();
+      } catch (Exception e) {
+        ExceptionUtils.handleException(e);
+      }
       return;
     }
     
@@ -44,23 +67,83 @@ public class Miner implements WorkerListener, Runnable {
     if (args.length > 2)
       nThread = Integer.parseInt(args[2]);
     if (args.length > 3)
-      scanTime = Integer.parseInt(args[4]) * 1000L;
+      scanTime = Integer.parseInt(args[3]) * 1000L;
     if (args.length > 4)
-      retryPause = Integer.parseInt(args[5]) * 1000L;
+      retryPause = Integer.parseInt(args[4]) * 1000L;
+    if (args.length > 5)
+      historyFile = args[5];
     
     int minThreadCount = Math.max(cpuCount, nThread + 2);
     int maxThreadCount = Math.max(minThreadCount, cpuCount * 2);
     PriorityScheduler scheduler = new PriorityScheduler(minThreadCount, maxThreadCount, 1000 * 10);
     
     try {
-      Miner m = new Miner(scheduler, nThread, 
+      HttpClient client = new HttpClient();
+      client.start();
+      Miner m = new Miner(scheduler, client, nThread, 
                           url, auth, scanTime, retryPause);
+      if (historyFile != null) {
+        HistoryRing ring = HistoryRing.open(new File(historyFile), HISTORY_CAPACITY, nThread);
+        scheduler.scheduleWithFixedDelay(new HistoryRecorder(m.getWorker(), ring), 
+                                         HISTORY_INTERVAL, HISTORY_INTERVAL);
+      }
       m.run();
     } catch (Exception e) {
       ExceptionUtils.handleException(e);
     }
   }
   
+  // mines against a loopback getwork responder until each worker has found a share and seen a
+  // long poll answered, so that running with -XX:ArchiveClassesAtExit produces a class data
+  // sharing archive covering the hashing threads, both long pollers, share submission and the
+  // HttpClient request path as well as HttpURLConnection
+  private static void warmUp() throws Exception {
+    GetworkResponder responder = new GetworkResponder(WARMUP_TARGET, WARMUP_LONG_POLL_DELAY);
+    responder.start();
+    HttpClient client = new HttpClient();
+    client.start();
+    PriorityScheduler scheduler = new PriorityScheduler(8, 8, 1000);
+    try {
+      String url = responder.getUrl().toString();
+      Miner[] miners = { new Miner(scheduler, client, 1, url, null, 
+                                   DEFAULT_SCAN_TIME, DEFAULT_RETRY_PAUSE), 
+                         new Miner(scheduler, null, 1, url, null, 
+                                   DEFAULT_SCAN_TIME, DEFAULT_RETRY_PAUSE) };
+      final CountDownLatch done = new CountDownLatch(miners.length * 2);
+      List<Future<?>> futures = new ArrayList<Future<?>>(miners.length);
+      for (Miner m : miners) {
+        m.getWorker().addObserver(new WorkerListener() {
+          private boolean shareAccepted = false;
+          private boolean newBlockDetected = false;
+          
+          @Override
+          public synchronized void update(Worker.Notification n) {
+            if (n == Worker.Notification.POW_TRUE && ! shareAccepted) {
+              shareAccepted = true;
+              done.countDown();
+            } else if (n == Worker.Notification.NEW_BLOCK_DETECTED && ! newBlockDetected) {
+              newBlockDetected = true;
+              done.countDown();
+            }
+          }
+        });
+        futures.add(scheduler.submit(m));
+      }
+      if (! done.await(WARMUP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+        log("Warm up timed out");
+      }
+      for (Miner m : miners) {
+        m.getWorker().stop();
+      }
+      FutureUtils.blockTillAllCompleteOrFirstError(futures);
+      log("Warm up complete");
+    } finally {
+      client.stop();
+      responder.close();
+      scheduler.shutdown();
+    }
+  }
+  
   private Worker worker;
   private long lastWorkTime;
   private long lastWorkHashes;
@@ -68,6 +151,12 @@ public class Miner implements WorkerListener, Runnable {
   public Miner(SubmitterSchedulerInterface scheduler, int nThread, 
                String url, String auth, 
                long scanTime, long retryPause) {
+    this(scheduler, null, nThread, url, auth, scanTime, retryPause);
+  }
+  
+  public Miner(SubmitterSchedulerInterface scheduler, HttpClient client, int nThread, 
+               String url, String auth, 
+               long scanTime, long retryPause) {
     if (nThread < 1) {
       throw new IllegalArgumentException("Invalid number of threads: "
                                          + nThread);
@@ -78,7 +167,7 @@ public class Miner implements WorkerListener, Runnable {
     }
     
     try {
-      worker = new Worker(scheduler, nThread, 
+      worker = new Worker(scheduler, client, nThread, 
                           new URL(url), auth, 
                           scanTime, retryPause);
     } catch (MalformedURLException e) {
@@ -87,6 +176,10 @@ public class Miner implements WorkerListener, Runnable {
     worker.addObserver(this);
   }
   
+  public Worker getWorker() {
+    return worker;
+  }
+  
   public void start() {
     Thread t = new Thread(worker);
     t.setPriority(Thread.MIN_PRIORITY);
@@ -0,0 +1,360 @@
+package org.litecoinpool.miner;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.threadly.concurrent.SubmitterSchedulerInterface;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * Embeddable miner that runs any number of logical workers (accounts or pools) on one shared
+ * set of hashing threads, drawing scratchpads from a shared {@link HasherPool}.  Each hashing
+ * thread repeatedly picks a worker by weight and hashes its current work for a short time
+ * slice.  Workers without work (stalled pools) are skipped, so their share goes to the rest.
+ *
+ * Unlike {@link Miner} errors never exit the JVM, a worker that fails permanently just stops
+ * and can be observed through its listeners.  The scheduler needs a thread for each hashing
+ * thread and up to two per worker.
+ */
+public class MiningEngine {
+  public static final long DEFAULT_SLICE_TIME = 250; // ms
+  private static final int NONCE_BATCH = 16;
+  private static final Runnable NO_OP = new Runnable() {
+    @Override
+    public void run() {
+      // nothing to do, only used to complete futures
+    }
+  };
+
+  private final SubmitterSchedulerInterface scheduler;
+  private final HttpClient client;
+  private final HasherPool hashers;
+  private final long sliceTime; // ms
+  private final List<Source> sources = new ArrayList<Source>();
+  private final List<FutureTask<Void>> resizeFutures = new ArrayList<FutureTask<Void>>(1);
+
+  private volatile boolean running = false; // only changed when synchronized to this
+  private volatile int threadTarget = 0; // only changed when synchronized to this
+  private volatile int threadCount = 0; // threads submitted and not yet exiting, only changed when synchronized to this
+  private int activeThreadCount = 0; // threads currently hashing, only accessed when synchronized to this
+  private Future<?> stopFuture = null; // only accessed when synchronized to this
+
+  // client may be null to use HttpURLConnection for all workers
+  public MiningEngine(SubmitterSchedulerInterface scheduler, HttpClient client,
+                      HasherPool hashers, long sliceMillis) {
+    if (sliceMillis < 1L) {
+      throw new IllegalArgumentException("Invalid slice time: " + sliceMillis);
+    }
+
+    this.scheduler = scheduler;
+    this.client = client;
+    this.hashers = hashers;
+    this.sliceTime = sliceMillis;
+  }
+
+  // the returned worker can be used to observe the source, it is started right away if the engine is running
+  public Worker addWorker(String name, String url, String auth,
+                          long scanTime, long retryPause, double weight) {
+    if (weight < 0) {
+      throw new IllegalArgumentException("Invalid weight: " + weight);
+    }
+    Worker worker;
+    try {
+      worker = new Worker(scheduler, client, 0, new URL(url), auth, scanTime, retryPause);
+    } catch (MalformedURLException e) {
+      throw new IllegalArgumentException("Invalid URL: " + url);
+    }
+    Source s = new Source(name, worker, weight);
+    synchronized (this) {
+      synchronized (sources) {
+        sources.add(s);
+      }
+      if (running) {
+        s.future = scheduler.submit(worker);
+      }
+    }
+    return worker;
+  }
+
+  // stops and removes all workers with the given name, the future completes once they have terminated
+  public Future<?> removeWorker(String name) {
+    final List<Source> removed = new ArrayList<Source>(1);
+    final List<Future<?>> futures;
+    // locked so a concurrent start can not submit a worker that is being removed
+    synchronized (this) {
+      synchronized (sources) {
+        for (Source s : sources) {
+          if (s.name.equals(name)) {
+            removed.add(s);
+          }
+        }
+        sources.removeAll(removed);
+      }
+      for (Source s : removed) {
+        s.worker.stop();
+      }
+      futures = getFutures(removed);
+    }
+    return scheduler.submit(new Runnable() {
+      @Override
+      public void run() {
+        awaitTermination(futures);
+      }
+    });
+  }
+
+  public List<Source> getSources() {
+    synchronized (sources) {
+      return Collections.unmodifiableList(new ArrayList<Source>(sources));
+    }
+  }
+
+  public void setWeight(String name, double weight) {
+    if (weight < 0) {
+      throw new IllegalArgumentException("Invalid weight: " + weight);
+    }
+    synchronized (sources) {
+      for (Source s : sources) {
+        if (s.name.equals(name)) {
+          s.weight = weight;
+        }
+      }
+    }
+  }
+
+  public int getThreadCount() {
+    return threadTarget;
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  // starts the workers and hashing threads, the future completes once all threads are hashing
+  public synchronized Future<?> start(int threads) {
+    if (running) {
+      throw new IllegalStateException("Already running");
+    } else if (stopFuture != null && ! stopFuture.isDone()) {
+      // the old workers and hashing threads would otherwise overlap with the new ones
+      throw new IllegalStateException("Still stopping");
+    }
+    running = true;
+    for (Source s : getSources()) {
+      s.future = scheduler.submit(s.worker);
+    }
+    return resize(threads);
+  }
+
+  // the future completes once the hashing thread count has been reached
+  public synchronized Future<?> resize(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Invalid number of threads: " + threads);
+    } else if (! running) {
+      throw new IllegalStateException("Not running");
+    }
+    threadTarget = threads;
+    while (threadCount < threadTarget) {
+      threadCount++;
+      scheduler.execute(new SliceHasher());
+    }
+    return newResizeFuture();
+  }
+
+  // the future completes once all hashing threads have exited and all workers have terminated,
+  // the engine can not be started again before then
+  public synchronized Future<?> stop() {
+    List<Source> stopped = getSources();
+    running = false;
+    threadTarget = 0;
+    final Future<?> threadsStopped = newResizeFuture();
+    for (Source s : stopped) {
+      s.worker.stop();
+    }
+    final List<Future<?>> futures = getFutures(stopped);
+    stopFuture = scheduler.submit(new Runnable() {
+      @Override
+      public void run() {
+        awaitTermination(futures);
+        try {
+          threadsStopped.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+          ExceptionUtils.handleException(e.getCause());
+        }
+      }
+    });
+    return stopFuture;
+  }
+
+  // should have this locked before calling, so the futures are those of the current runs
+  private static List<Future<?>> getFutures(List<Source> sources) {
+    List<Future<?>> futures = new ArrayList<Future<?>>(sources.size());
+    for (Source s : sources) {
+      if (s.future != null) {
+        futures.add(s.future);
+      }
+    }
+    return futures;
+  }
+
+  private static void awaitTermination(List<Future<?>> futures) {
+    try {
+      FutureUtils.blockTillAllCompleteOrFirstError(futures);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      ExceptionUtils.handleException(e.getCause());
+    }
+  }
+
+  // should have this locked before calling
+  private Future<?> newResizeFuture() {
+    FutureTask<Void> f = new FutureTask<Void>(NO_OP, null);
+    resizeFutures.add(f);
+    checkResizeFutures();
+    return f;
+  }
+
+  // should have this locked before calling
+  private void checkResizeFutures() {
+    if (threadCount == threadTarget && activeThreadCount == threadTarget) {
+      for (FutureTask<Void> f : resizeFutures) {
+        f.run();
+      }
+      resizeFutures.clear();
+    }
+  }
+
+  private synchronized void threadStarted() {
+    activeThreadCount++;
+    checkResizeFutures();
+  }
+
+  // returns true if the calling thread should exit, in which case it is no longer counted
+  private synchronized boolean threadShouldExit() {
+    if (threadCount > threadTarget) {
+      threadCount--;
+      return true;
+    }
+    return false;
+  }
+
+  private synchronized void threadExited(boolean started, boolean failed) {
+    if (started) {
+      activeThreadCount--;
+    }
+    if (failed) {
+      // the thread left without being asked to, lower the target so pending futures still complete
+      threadCount--;
+      threadTarget = Math.min(threadTarget, threadCount);
+    }
+    checkResizeFutures();
+  }
+
+  private boolean hasWork() {
+    synchronized (sources) {
+      for (Source s : sources) {
+        if (s.worker.hasWork()) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  // smooth weighted round robin over the sources that currently have work
+  private Source pickSource() {
+    synchronized (sources) {
+      Source best = null;
+      double total = 0;
+      for (Source s : sources) {
+        double w = s.weight;
+        if (w <= 0 || ! s.worker.hasWork()) {
+          continue;
+        }
+        s.credit += w;
+        total += w;
+        if (best == null || s.credit > best.credit) {
+          best = s;
+        }
+      }
+      if (best != null) {
+        best.credit -= total;
+      }
+      return best;
+    }
+  }
+
+  private class SliceHasher implements Runnable {
+    @Override
+    public void run() {
+      Hasher hasher = null;
+      boolean failed = true;
+      try {
+        hasher = hashers.borrow();
+        threadStarted();
+        for (int i = 0; i < Hasher.WARMUP_HASHES && threadCount <= threadTarget && ! hasWork(); i++) {
+          hasher.warmUp(1);
+        }
+        while (! threadShouldExit()) {
+          Source s = pickSource();
+          if (s == null) {
+            Thread.sleep(1L);
+            continue;
+          }
+          // Clock.lastKnownTimeMillis() only moves every 100 ms, too coarse for short slices
+          long sliceEnd = System.nanoTime() + sliceTime * 1000000L;
+          while (threadCount <= threadTarget && s.worker.hashBatch(hasher, NONCE_BATCH) > 0 &&
+                 System.nanoTime() - sliceEnd < 0) {
+            // keep hashing this source until the slice is over or its work goes away
+          }
+        }
+        failed = false;
+      } catch (InterruptedException e) {
+        // let thread exit
+      } catch (GeneralSecurityException e) {
+        ExceptionUtils.handleException(e);
+      } finally {
+        if (hasher != null) {
+          hashers.release(hasher);
+        }
+        threadExited(hasher != null, failed);
+      }
+    }
+  }
+
+  public static class Source {
+    private final String name;
+    private final Worker worker;
+    private volatile double weight;
+    private double credit = 0; // only accessed while synchronized on sources
+    private volatile Future<?> future = null;
+
+    private Source(String name, Worker worker, double weight) {
+      this.name = name;
+      this.worker = worker;
+      this.weight = weight;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public Worker getWorker() {
+      return worker;
+    }
+
+    public double getWeight() {
+      return weight;
+    }
+  }
+}
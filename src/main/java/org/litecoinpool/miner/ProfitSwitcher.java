@@ -0,0 +1,169 @@
+package org.litecoinpool.miner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+
+import org.litecoinpool.miner.Worker.WorkerListener;
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.util.Clock;
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * Mines several work sources at once through a {@link MiningEngine}.  Each source starts with
+ * the weight given on the command line, 1 if none, and weights are then read from a properties
+ * file of name=weight lines which is re-read whenever it changes.
+ */
+public class ProfitSwitcher implements Runnable {
+  private static final long DEFAULT_SCAN_TIME = 5000;
+  private static final long DEFAULT_RETRY_PAUSE = 30000;
+  private static final long RELOAD_INTERVAL = 10 * 1000; // ms
+
+  public static void main(String[] args) {
+    boolean offHeap = args.length > 0 && args[0].equals("--offheap");
+    if (offHeap) {
+      args = Arrays.copyOfRange(args, 1, args.length);
+    }
+    if (args.length < 5 || (args.length - 2) % 3 != 0) {
+      System.out.println("Usage:  java ProfitSwitcher [--offheap] THREADS WEIGHTFILE|- NAME[=WEIGHT] URL USERNAME:PASSWORD [NAME[=WEIGHT] URL USERNAME:PASSWORD ...]");
+      return;
+    }
+
+    int nThread = Integer.parseInt(args[0]);
+    File weightFile = args[1].equals("-") ? null : new File(args[1]);
+    int sourceCount = (args.length - 2) / 3;
+
+    int cpuCount = Runtime.getRuntime().availableProcessors();
+    int minThreadCount = Math.max(cpuCount, nThread + (sourceCount * 2) + 2);
+    int maxThreadCount = Math.max(minThreadCount, cpuCount * 2);
+    PriorityScheduler scheduler = new PriorityScheduler(minThreadCount, maxThreadCount, 1000 * 10);
+
+    try {
+      HttpClient client = new HttpClient();
+      client.start();
+      // off-heap scratchpads are allocated by each hashing thread, on its own NUMA node
+      HasherPool hashers = offHeap ? new HasherPool(new ScratchpadArena()) : new HasherPool(nThread);
+      MiningEngine engine = new MiningEngine(scheduler, client, hashers, 
+                                             MiningEngine.DEFAULT_SLICE_TIME);
+      ProfitSwitcher ps = new ProfitSwitcher(engine, nThread, weightFile);
+      for (int i = 2; i < args.length; i += 3) {
+        int split = args[i].lastIndexOf('=');
+        final String name = split < 0 ? args[i] : args[i].substring(0, split);
+        double weight = split < 0 ? 1 : Double.parseDouble(args[i].substring(split + 1));
+        Worker w = engine.addWorker(name, args[i + 1], args[i + 2],
+                                    DEFAULT_SCAN_TIME, DEFAULT_RETRY_PAUSE, weight);
+        w.addObserver(new WorkerListener() {
+          @Override
+          public void update(Worker.Notification n) {
+            if (n != Worker.Notification.NEW_WORK) {
+              Miner.log(name + ": " + n);
+            }
+          }
+        });
+      }
+
+      Thread t = new Thread(ps);
+      t.start();
+
+      List<MiningEngine.Source> sources = engine.getSources();
+      long[] lastHashes = new long[sources.size()];
+      long lastTime = Clock.lastKnownTimeMillis();
+      while (t.isAlive()) {
+        Thread.sleep(DEFAULT_SCAN_TIME);
+        long now = Clock.lastKnownTimeMillis();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lastHashes.length; i++) {
+          MiningEngine.Source s = sources.get(i);
+          long hashes = s.getWorker().getHashes();
+          double speed = (double) (hashes - lastHashes[i]) / Math.max(1, now - lastTime);
+          lastHashes[i] = hashes;
+          sb.append(String.format("%s: %.2f khash/s (weight %.2f)  ",
+                                  s.getName(), speed, s.getWeight()));
+        }
+        lastTime = now;
+        Miner.log(sb.toString());
+      }
+    } catch (Exception e) {
+      ExceptionUtils.handleException(e);
+    }
+  }
+
+  private final MiningEngine engine;
+  private final int threadCount;
+  private final File weightFile;
+
+  private volatile boolean running = false; // only changed when synchronized to this
+  private long weightFileModified = 0L;
+
+  public ProfitSwitcher(MiningEngine engine, int threadCount, File weightFile) {
+    if (threadCount < 1) {
+      throw new IllegalArgumentException("Invalid number of threads: " + threadCount);
+    }
+
+    this.engine = engine;
+    this.threadCount = threadCount;
+    this.weightFile = weightFile;
+  }
+
+  public void stop() {
+    synchronized (this) {
+      running = false;
+      this.notifyAll();
+    }
+  }
+
+  @Override
+  public void run() {
+    running = true;
+    engine.start(threadCount);
+
+    synchronized (this) {
+      while (running) {
+        reloadWeights();
+        try {
+          this.wait(RELOAD_INTERVAL);
+        } catch (InterruptedException e) {
+          running = false;
+        }
+      }
+    }
+    try {
+      engine.stop().get();
+    } catch (InterruptedException e) {
+      return; // let thread exit
+    } catch (ExecutionException e) {
+      ExceptionUtils.handleException(e.getCause());
+    }
+  }
+
+  private void reloadWeights() {
+    if (weightFile == null || weightFile.lastModified() == weightFileModified) {
+      return;
+    }
+    weightFileModified = weightFile.lastModified();
+    Properties p = new Properties();
+    try {
+      InputStream in = new FileInputStream(weightFile);
+      try {
+        p.load(in);
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      ExceptionUtils.handleException(e);
+      return;
+    }
+    for (String name : p.stringPropertyNames()) {
+      try {
+        engine.setWeight(name, Double.parseDouble(p.getProperty(name).trim()));
+      } catch (IllegalArgumentException e) {
+        ExceptionUtils.handleException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package org.litecoinpool.miner;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Allocates {@link Hasher} scratchpads off-heap.  Each thread carves its scratchpads out of its
+ * own direct memory chunks, which are zeroed by the allocating thread, so with the default Linux
+ * first touch policy the pages end up on the NUMA node of the hashing thread that asked for them.
+ * A chunk only holds as many scratchpads as a thread is expected to use, one by default.
+ *
+ * Direct buffers are only page aligned when the JVM runs with
+ * -Dsun.nio.PageAlignDirectMemory=true.  The default chunk is far smaller than a huge page, so
+ * it is always backed by normal pages.  Chunks of {@link #HUGE_PAGE_SCRATCHPADS} scratchpads
+ * always cover at least one aligned 2 MB page, which the kernel may back with a transparent huge
+ * page if THP is set to "always".  Nothing here can madvise, so huge pages are never guaranteed.
+ *
+ * Call {@link #allocate()} from the thread that is going to hash with the scratchpad.
+ */
+public class ScratchpadArena {
+  public static final int SCRATCHPAD_BYTES = Hasher.SCRATCHPAD_INTS * 4;
+  private static final int HUGE_PAGE_BYTES = 2 * 1024 * 1024;
+  // any unaligned range of two huge pages contains a whole aligned one
+  public static final int HUGE_PAGE_SCRATCHPADS = 2 * HUGE_PAGE_BYTES / SCRATCHPAD_BYTES;
+
+  private final int chunkSize;
+  private final ThreadLocal<ByteBuffer> chunks = new ThreadLocal<ByteBuffer>();
+
+  public ScratchpadArena() {
+    this(1);
+  }
+
+  public ScratchpadArena(int scratchpadsPerThread) {
+    if (scratchpadsPerThread < 1) {
+      throw new IllegalArgumentException("Invalid number of scratchpads: " + scratchpadsPerThread);
+    }
+
+    chunkSize = scratchpadsPerThread * SCRATCHPAD_BYTES;
+  }
+
+  public IntBuffer allocate() {
+    ByteBuffer chunk = chunks.get();
+    if (chunk == null || chunk.remaining() < SCRATCHPAD_BYTES) {
+      chunk = ByteBuffer.allocateDirect(chunkSize);
+      chunks.set(chunk);
+    }
+    chunk.limit(chunk.position() + SCRATCHPAD_BYTES);
+    ByteBuffer scratchpad = chunk.slice().order(ByteOrder.nativeOrder());
+    chunk.position(chunk.limit());
+    chunk.limit(chunk.capacity());
+    return scratchpad.asIntBuffer();
+  }
+}
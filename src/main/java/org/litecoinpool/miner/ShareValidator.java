@@ -0,0 +1,202 @@
+package org.litecoinpool.miner;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.threadly.concurrent.SubmitterSchedulerInterface;
+
+/**
+ * Pool side validation of submitted shares.  A batch is hashed in parallel, with the calling
+ * thread taking part, and each thread keeps its own {@link Hasher}.  Threads claim one share at
+ * a time so a slow thread never holds up the rest of the batch.  Results are returned in the
+ * order of the submitted shares.
+ *
+ * Shares already seen are reported as {@link Result#DUPLICATE} without being hashed.  Seen shares
+ * are kept in a bounded cache, the oldest are forgotten once it is full.
+ */
+public class ShareValidator {
+  public static final int DEFAULT_CACHE_SIZE = 1000 * 1000;
+
+  public static enum Result {
+    VALID, INVALID, DUPLICATE
+  };
+
+  private final SubmitterSchedulerInterface scheduler;
+  private final int threadCount;
+  private final Map<ShareKey, Boolean> seen;
+  private final ThreadLocal<Hasher> hashers = new ThreadLocal<Hasher>();
+
+  public ShareValidator(SubmitterSchedulerInterface scheduler, int threadCount) {
+    this(scheduler, threadCount, DEFAULT_CACHE_SIZE);
+  }
+
+  public ShareValidator(SubmitterSchedulerInterface scheduler, int threadCount,
+                        final int cacheSize) {
+    if (threadCount < 1) {
+      throw new IllegalArgumentException("Invalid number of threads: " + threadCount);
+    } else if (cacheSize < 0) {
+      throw new IllegalArgumentException("Invalid cache size: " + cacheSize);
+    }
+
+    this.scheduler = scheduler;
+    this.threadCount = threadCount;
+    this.seen = new LinkedHashMap<ShareKey, Boolean>(Math.min(cacheSize, 1024) * 2) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<ShareKey, Boolean> eldest) {
+        return size() > cacheSize;
+      }
+    };
+  }
+
+  public Result validate(Share share) throws GeneralSecurityException, 
+                                             InterruptedException {
+    return validate(Collections.singletonList(share)).get(0);
+  }
+
+  public List<Result> validate(List<Share> shares) throws GeneralSecurityException, 
+                                                          InterruptedException {
+    Result[] results = new Result[shares.size()];
+    List<Share> toHash = new ArrayList<Share>(shares.size());
+    List<Integer> toHashIndex = new ArrayList<Integer>(shares.size());
+    // duplicates are resolved in submission order before any hashing
+    synchronized (seen) {
+      for (int i = 0; i < results.length; i++) {
+        Share s = shares.get(i);
+        if (seen.put(s.key, Boolean.TRUE) != null) {
+          results[i] = Result.DUPLICATE;
+        } else {
+          toHash.add(s);
+          toHashIndex.add(i);
+        }
+      }
+    }
+
+    if (! toHash.isEmpty()) {
+      Batch batch = new Batch(toHash);
+      int helpers = Math.min(threadCount, toHash.size()) - 1;
+      for (int i = 0; i < helpers; i++) {
+        scheduler.execute(batch);
+      }
+      batch.run();
+      batch.remaining.await();
+      if (batch.failure != null) {
+        // forget the batch so resubmitting its shares is not reported as duplicates
+        synchronized (seen) {
+          for (Share s : toHash) {
+            seen.remove(s.key);
+          }
+        }
+        throw batch.failure;
+      }
+      for (int i = 0; i < batch.valid.length; i++) {
+        results[toHashIndex.get(i)] = batch.valid[i] ? Result.VALID : Result.INVALID;
+      }
+    }
+
+    return Arrays.asList(results);
+  }
+
+  private Hasher getHasher() throws GeneralSecurityException {
+    Hasher h = hashers.get();
+    if (h == null) {
+      h = new Hasher();
+      hashers.set(h);
+    }
+    return h;
+  }
+
+  private class Batch implements Runnable {
+    private final List<Share> shares;
+    private final boolean[] valid;
+    private final AtomicInteger next = new AtomicInteger(0);
+    private final CountDownLatch remaining;
+    private volatile GeneralSecurityException failure = null;
+
+    private Batch(List<Share> shares) {
+      this.shares = shares;
+      this.valid = new boolean[shares.size()];
+      this.remaining = new CountDownLatch(shares.size());
+    }
+
+    @Override
+    public void run() {
+      int i;
+      while ((i = next.getAndIncrement()) < valid.length) {
+        try {
+          Share s = shares.get(i);
+          valid[i] = Work.hashMeetsTarget(getHasher().hash(s.header, s.nonce), s.target);
+        } catch (GeneralSecurityException e) {
+          failure = e;
+        } finally {
+          remaining.countDown();
+        }
+      }
+    }
+  }
+
+  public static class Share {
+    private final byte[] header;
+    private final int nonce;
+    private final byte[] target;
+    private final ShareKey key;
+
+    // header is big-endian, bytes 76 to 79 are replaced by the nonce, target is little-endian
+    public Share(byte[] header, int nonce, byte[] target) {
+      if (header.length != 80) {
+        throw new IllegalArgumentException("Invalid header length: " + header.length);
+      } else if (target.length != 32) {
+        throw new IllegalArgumentException("Invalid target length: " + target.length);
+      }
+
+      this.header = header;
+      this.nonce = nonce;
+      this.target = target;
+      this.key = new ShareKey(header, nonce);
+    }
+
+    public byte[] getHeader() {
+      return header;
+    }
+
+    public int getNonce() {
+      return nonce;
+    }
+
+    public byte[] getTarget() {
+      return target;
+    }
+  }
+
+  private static class ShareKey {
+    private final byte[] bytes;
+    private final int hashCode;
+
+    private ShareKey(byte[] header, int nonce) {
+      bytes = Arrays.copyOf(header, 80);
+      bytes[76] = (byte) nonce;
+      bytes[77] = (byte) (nonce >> 8);
+      bytes[78] = (byte) (nonce >> 16);
+      bytes[79] = (byte) (nonce >> 24);
+      hashCode = Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof ShareKey && Arrays.equals(bytes, ((ShareKey) o).bytes);
+    }
+  }
+}
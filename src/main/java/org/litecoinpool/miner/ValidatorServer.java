@@ -0,0 +1,210 @@
+package org.litecoinpool.miner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.concurrent.SubmitterSchedulerInterface;
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * Line based TCP front end for {@link ShareValidator}.  A client sends a batch of lines of the
+ * form "HEADER NONCE TARGET" in hex (80 byte big-endian header, 32 bit nonce, 32 byte
+ * little-endian target) followed by an empty line.  The server answers with one line per share,
+ * in the same order, holding VALID, INVALID, DUPLICATE or ERROR, followed by an empty line.
+ * Shares past the first 10000 of a batch are answered with ERROR without being validated.
+ *
+ * Each connection is served by a thread from the connection scheduler, which must not be the
+ * scheduler the validator hashes on, so idle clients can never starve validation of threads.
+ */
+public class ValidatorServer implements Runnable {
+  private static final int DEFAULT_PORT = 9334;
+  private static final String DEFAULT_BIND_ADDRESS = "127.0.0.1";
+  private static final int MAX_BATCH_SIZE = 10000; // shares
+  private static final int MAX_LINE_LENGTH = 256; // chars, a share line is 234
+  private static final int MAX_CONNECTION_THREADS = 256;
+  private static final Pattern HEX_PATTERN = Pattern.compile("[0-9a-fA-F]+");
+
+  public static void main(String[] args) {
+    int port = DEFAULT_PORT;
+    int cpuCount = Runtime.getRuntime().availableProcessors();
+    int nThread = cpuCount;
+
+    if (args.length > 0 && args[0].equals("--help")) {
+      System.out.println("Usage:  java ValidatorServer [PORT] [THREADS] [BINDADDRESS]");
+      return;
+    }
+
+    if (args.length > 0)
+      port = Integer.parseInt(args[0]);
+    if (args.length > 1)
+      nThread = Integer.parseInt(args[1]);
+    // there is no authentication, so only listen on loopback unless told otherwise
+    String bindAddress = args.length > 2 ? args[2] : DEFAULT_BIND_ADDRESS;
+
+    // the calling connection thread takes part in each batch, so one less validation thread
+    PriorityScheduler validationScheduler = new PriorityScheduler(Math.max(1, nThread - 1), 
+                                                                  Math.max(1, nThread - 1), 
+                                                                  1000 * 10);
+    PriorityScheduler connectionScheduler = new PriorityScheduler(1, MAX_CONNECTION_THREADS, 
+                                                                  1000 * 10);
+
+    try {
+      ValidatorServer s = new ValidatorServer(connectionScheduler, 
+                                              new ShareValidator(validationScheduler, nThread),
+                                              new ServerSocket(port, 50, 
+                                                               InetAddress.getByName(bindAddress)));
+      s.run();
+    } catch (Exception e) {
+      ExceptionUtils.handleException(e);
+    }
+  }
+
+  private final SubmitterSchedulerInterface connectionScheduler;
+  private final ShareValidator validator;
+  private final ServerSocket serverSocket;
+
+  public ValidatorServer(SubmitterSchedulerInterface connectionScheduler, ShareValidator validator,
+                         ServerSocket serverSocket) {
+    this.connectionScheduler = connectionScheduler;
+    this.validator = validator;
+    this.serverSocket = serverSocket;
+  }
+
+  public void stop() {
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      ExceptionUtils.handleException(e);
+    }
+  }
+
+  @Override
+  public void run() {
+    while (! serverSocket.isClosed()) {
+      try {
+        connectionScheduler.execute(new ClientHandler(serverSocket.accept()));
+      } catch (IOException e) {
+        if (! serverSocket.isClosed()) {
+          ExceptionUtils.handleException(e);
+        }
+      }
+    }
+  }
+
+  private class ClientHandler implements Runnable {
+    private final Socket socket;
+
+    public ClientHandler(Socket socket) {
+      this.socket = socket;
+    }
+
+    @Override
+    public void run() {
+      try {
+        socket.setTcpNoDelay(true);
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+        Writer out = new OutputStreamWriter(socket.getOutputStream(), "US-ASCII");
+        List<String> lines = new ArrayList<String>();
+        int overflow = 0; // lines past MAX_BATCH_SIZE, answered without being kept
+        String line;
+        while ((line = readLine(in)) != null) {
+          line = line.trim();
+          if (line.length() > 0) {
+            if (lines.size() < MAX_BATCH_SIZE) {
+              lines.add(line);
+            } else {
+              overflow++;
+            }
+            continue;
+          }
+          for (String result : handleBatch(lines)) {
+            out.write(result);
+            out.write('\n');
+          }
+          for (; overflow > 0; overflow--) {
+            out.write("ERROR Batch too large\n");
+          }
+          out.write('\n');
+          out.flush();
+          lines.clear();
+        }
+      } catch (IOException e) {
+        // client went away
+      } catch (InterruptedException e) {
+        // let thread exit
+      } catch (GeneralSecurityException e) {
+        ExceptionUtils.handleException(e);
+      } finally {
+        try {
+          socket.close();
+        } catch (IOException e) {
+          // ignored
+        }
+      }
+    }
+  }
+
+  // like BufferedReader.readLine but keeps at most one char over MAX_LINE_LENGTH, so parsing
+  // rejects the line without the rest of it ever being buffered
+  private static String readLine(BufferedReader in) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    int c;
+    while ((c = in.read()) >= 0 && c != '\n') {
+      if (sb.length() <= MAX_LINE_LENGTH) {
+        sb.append((char) c);
+      }
+    }
+    return c < 0 && sb.length() == 0 ? null : sb.toString();
+  }
+
+  private List<String> handleBatch(List<String> lines) throws GeneralSecurityException,
+                                                              InterruptedException {
+    String[] results = new String[lines.size()];
+    List<ShareValidator.Share> shares = new ArrayList<ShareValidator.Share>(lines.size());
+    for (int i = 0; i < results.length; i++) {
+      try {
+        shares.add(parseShare(lines.get(i)));
+      } catch (IllegalArgumentException e) {
+        results[i] = "ERROR " + e.getMessage();
+      }
+    }
+    List<ShareValidator.Result> validated = validator.validate(shares);
+    List<String> response = new ArrayList<String>(results.length);
+    int v = 0;
+    for (int i = 0; i < results.length; i++) {
+      response.add(results[i] != null ? results[i] : validated.get(v++).toString());
+    }
+    return response;
+  }
+
+  private static ShareValidator.Share parseShare(String line) {
+    if (line.length() > MAX_LINE_LENGTH) {
+      throw new IllegalArgumentException("Line too long");
+    }
+    String[] parts = line.split("\\s+");
+    if (parts.length != 3) {
+      throw new IllegalArgumentException("Expected HEADER NONCE TARGET");
+    } else if (parts[0].length() != 160 || parts[1].length() != 8 || parts[2].length() != 64) {
+      throw new IllegalArgumentException("Invalid field length");
+    }
+    for (String part : parts) {
+      if (! HEX_PATTERN.matcher(part).matches()) {
+        throw new IllegalArgumentException("Invalid hex: " + part);
+      }
+    }
+    int nonce = (int) Long.parseLong(parts[1], 16);
+    return new ShareValidator.Share(Work.hexStringToByteArray(parts[0]), nonce,
+                                    Work.hexStringToByteArray(parts[2].toLowerCase()));
+  }
+}
@@ -9,6 +9,7 @@ import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -16,14 +17,17 @@ import org.threadly.util.Clock;
 
 public class Work {
   private static final int DEFAULT_TIMEOUT = 10000; // ms
+  protected static final String GETWORK_REQUEST = "{\"method\": \"getwork\", \"params\": [], \"id\":0}";
   private static final Pattern dataPattern = Pattern.compile("\"data\"\\s*:\\s*\"([0-9a-f]+)\"");
   private static final Pattern targetPattern = Pattern.compile("\"target\"\\s*:\\s*\"([0-9a-f]+)\"");
   private static final Pattern resultPattern = Pattern.compile("\"result\"\\s*:\\s*([0-9A-Za-z]+)");
   
+  private HttpClient client = null;
   private URL url;
   private String auth;
   private long responseTime;
   private String xLongPolling = null;
+  private final AtomicInteger nextNonce = new AtomicInteger(0);
   
   private byte[] data; // little-endian
   private byte[] target; // little-endian
@@ -39,15 +43,40 @@ public class Work {
   
   public Work(HttpURLConnection conn, 
               URL mainUrl, String auth) throws IOException {
-    String request = "{\"method\": \"getwork\", \"params\": [], \"id\":0}";
-    
-    conn = getJsonRpcConnection(conn, request, auth);
+    conn = getJsonRpcConnection(conn, GETWORK_REQUEST, auth);
     int response = conn.getResponseCode();
     if (response == 401 || response == 403) {
       throw new IllegalArgumentException("Access denied");
     }
     String content = getConnectionContent(conn);
     
+    parse(content);
+    xLongPolling = conn.getHeaderField("X-Long-Polling");
+    this.url = mainUrl;
+    this.auth = auth;
+  }
+  
+  public Work(HttpClient client, URL url, String auth) throws IOException {
+    this(client.post(url, GETWORK_REQUEST, auth, DEFAULT_TIMEOUT, true), client, url, auth);
+  }
+  
+  public Work(HttpClient.Response response, HttpClient client, 
+              URL mainUrl, String auth) throws IOException {
+    int code = response.getCode();
+    if (code == 401 || code == 403) {
+      throw new IllegalArgumentException("Access denied");
+    } else if (code >= 400) {
+      throw new IOException("Server returned HTTP response code: " + code);
+    }
+    
+    parse(response.getContent());
+    xLongPolling = response.getHeader("X-Long-Polling");
+    this.client = client;
+    this.url = mainUrl;
+    this.auth = auth;
+  }
+  
+  private void parse(String content) {
     responseTime = Clock.lastKnownTimeMillis();
     Matcher m = dataPattern.matcher(content);
     if (! m.find()) {
@@ -62,9 +91,6 @@ public class Work {
     String sTarget = m.group(1);
     target = hexStringToByteArray(sTarget);
     header = headerByData(data);
-    xLongPolling = conn.getHeaderField("X-Long-Polling");
-    this.url = mainUrl;
-    this.auth = auth;
   }
   
   public boolean submit(int nonce) throws IOException {
@@ -76,8 +102,17 @@ public class Work {
     String sData = byteArrayToHexString(d);
     String request = "{\"method\": \"getwork\", \"params\": [ \"" + sData + "\" ], \"id\":1}";
     
-    HttpURLConnection conn = getJsonRpcConnection(url, request, auth);
-    String content = getConnectionContent(conn);
+    String content;
+    if (client != null) {
+      HttpClient.Response response = client.post(url, request, auth, DEFAULT_TIMEOUT, false); // a share must not be submitted twice
+      if (response.getCode() >= 400) {
+        throw new IOException("Server returned HTTP response code: " + response.getCode());
+      }
+      content = response.getContent();
+    } else {
+      HttpURLConnection conn = getJsonRpcConnection(url, request, auth);
+      content = getConnectionContent(conn);
+    }
     
     Matcher m = resultPattern.matcher(content);
     if (m.find() && m.group(1).equals("true")) {
@@ -88,7 +123,11 @@ public class Work {
   }
   
   protected boolean meetsTarget(int nonce, Hasher hasher) throws GeneralSecurityException {
-    byte[] hash = hasher.hash(header, nonce);
+    return hashMeetsTarget(hasher.hash(header, nonce), target);
+  }
+  
+  // both hash and target are little-endian
+  protected static boolean hashMeetsTarget(byte[] hash, byte[] target) {
     for (int i = hash.length - 1; i >= 0; i--) {
       int hashValue = (hash[i] & 0xff);
       int targetValue = (target[i] & 0xff);
@@ -101,6 +140,11 @@ public class Work {
     return true;
   }
   
+  // returns the first of count nonces that no other caller will be handed for this work
+  protected int reserveNonces(int count) {
+    return nextNonce.getAndAdd(count);
+  }
+  
   public byte[] getData() {
     return data;
   }
@@ -12,6 +12,7 @@ import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.threadly.concurrent.SubmitterSchedulerInterface;
 import org.threadly.concurrent.collections.ConcurrentArrayList;
@@ -28,29 +29,53 @@ public class Worker implements Runnable {
   };
   
   private final SubmitterSchedulerInterface scheduler;
+  private final HttpClient client;
   private final int threadCount;
   private final URL url;
   private final String auth;
   private final long scanTime; // ms
   private final long retryPause; // ms
   
+  private volatile ScratchpadArena arena = null;
   private volatile Work curWork = null;
   private volatile boolean running = false; // only changed when synchronized to this
+  private boolean stopRequested = false; // consumed by run, only accessed when synchronized to this
   private URL lpUrl = null;
   private HttpURLConnection lpConn = null;
+  private volatile HttpClient.Request lpRequest = null;
   private AtomicLong hashes = new AtomicLong(0L);
+  private final AtomicLongArray threadHashes; // per WorkChecker, each slot has a single writer
+  private final AtomicLong acceptedShares = new AtomicLong(0L);
+  private final AtomicLong rejectedShares = new AtomicLong(0L);
+  private final AtomicLong workFetches = new AtomicLong(0L);
+  private final AtomicLong workFetchNanos = new AtomicLong(0L);
+  private final AtomicLong idleNanos = new AtomicLong(0L);
   
   public Worker(SubmitterSchedulerInterface scheduler, int threadCount, 
                 URL url, String auth, 
                 long scanMillis, long pauseMillis) {
+    this(scheduler, null, threadCount, url, auth, scanMillis, pauseMillis);
+  }
+  
+  // if a client is provided it is used instead of HttpURLConnection for http URLs
+  public Worker(SubmitterSchedulerInterface scheduler, HttpClient client, 
+                int threadCount, URL url, String auth, 
+                long scanMillis, long pauseMillis) {
     this.scheduler = scheduler;
+    this.client = client;
     this.threadCount = threadCount;
+    this.threadHashes = new AtomicLongArray(threadCount);
     this.url = url;
     this.auth = auth;
     this.scanTime = scanMillis;
     this.retryPause = pauseMillis;
   }
   
+  // hashing threads started after this allocate their scratchpads from the arena, null for on-heap
+  public void setScratchpadArena(ScratchpadArena arena) {
+    this.arena = arena;
+  }
+  
   public long getRetryPause() {
     return retryPause;
   }
@@ -59,8 +84,43 @@ public class Worker implements Runnable {
     return hashes.get();
   }
   
+  public int getThreadCount() {
+    return threadCount;
+  }
+  
+  public long getThreadHashes(int index) {
+    return threadHashes.get(index);
+  }
+  
+  public long getAcceptedShares() {
+    return acceptedShares.get();
+  }
+  
+  public long getRejectedShares() {
+    return rejectedShares.get();
+  }
+  
+  public long getWorkFetches() {
+    return workFetches.get();
+  }
+  
+  // total time spent fetching work through getwork, excluding long polling
+  public long getWorkFetchMillis() {
+    return workFetchNanos.get() / 1000000L;
+  }
+  
+  // total time WorkCheckers spent waiting for work
+  public long getIdleMillis() {
+    return idleNanos.get() / 1000000L;
+  }
+  
+  public boolean hasWork() {
+    return curWork != null;
+  }
+  
   public void stop() {
     synchronized (this) {
+      stopRequested = true;
       running = false;
       this.notifyAll();
     }
@@ -69,7 +129,15 @@ public class Worker implements Runnable {
   @Override
   public void run() {
     List<Future<?>> futures = new ArrayList<Future<?>>(threadCount + 1);
-    running = true;
+    synchronized (this) {
+      if (stopRequested) {
+        // stopped before it got to run
+        stopRequested = false;
+        notifyObservers(Notification.TERMINATED);
+        return;
+      }
+      running = true;
+    }
     for (int i = 0; i < threadCount; ++i) {
       Future<?> f = scheduler.submit(new WorkChecker(i));
       futures.add(f);
@@ -84,8 +152,12 @@ public class Worker implements Runnable {
             if (lpUrl == null) {
               try {
                 if ((lpUrl = curWork.getLongPollingURL()) != null) {
-                  Future<?> f = scheduler.submit(new LongPoller());
-                  futures.add(f);
+                  if (client != null && HttpClient.supports(lpUrl)) {
+                    new AsyncLongPoller().run();
+                  } else {
+                    Future<?> f = scheduler.submit(new LongPoller());
+                    futures.add(f);
+                  }
                   notifyObservers(Notification.LONG_POLLING_ENABLED);
                 }
               } catch (Exception e) {
@@ -107,10 +179,15 @@ public class Worker implements Runnable {
         }
       } while (running);
       running = false;
+      stopRequested = false;
     }
     if (lpConn != null) {
       lpConn.disconnect();
     }
+    HttpClient.Request lpr = lpRequest;
+    if (lpr != null) {
+      lpr.cancel();
+    }
     try {
       FutureUtils.blockTillAllCompleteOrFirstError(futures);
     } catch (InterruptedException e) {
@@ -139,11 +216,47 @@ public class Worker implements Runnable {
     }
   }
 
+  // hashes the next count nonces of the current work, returns 0 if there is no work
+  // only for workers constructed with no threads, otherwise nonces will overlap with the WorkCheckers
+  protected int hashBatch(Hasher hasher, int count) throws GeneralSecurityException {
+    Work work = curWork;
+    if (work == null) {
+      return 0;
+    }
+    int nonce = work.reserveNonces(count);
+    for (int i = 0; i < count; i++) {
+      if (work.meetsTarget(nonce + i, hasher)) {
+        shareFound(work, nonce + i);
+      }
+    }
+    hashes.addAndGet(count);
+    return count;
+  }
+  
+  private void shareFound(Work work, int nonce) {
+    scheduler.execute(new WorkSubmitter(work, nonce));
+    if (lpUrl == null) {
+      synchronized (this) {
+        curWork = null;
+        this.notify();
+      }
+    }
+  }
+
   // should have this locked before calling
   private Work getWork() throws InterruptedException {
     while (running) {
       try {
-        return new Work(url, auth);
+        long start = System.nanoTime();
+        Work w;
+        if (client != null && HttpClient.supports(url)) {
+          w = new Work(client, url, auth);
+        } else {
+          w = new Work(url, auth);
+        }
+        workFetchNanos.addAndGet(System.nanoTime() - start);
+        workFetches.incrementAndGet();
+        return w;
       } catch (Exception e) {
         if (! running) {
           break;
@@ -209,6 +322,56 @@ public class Worker implements Runnable {
     }
   }
   
+  // long polls through the client without holding a thread while waiting
+  private class AsyncLongPoller implements Runnable, HttpClient.ResponseCallback {
+    @Override
+    public void run() {
+      if (running) {
+        lpRequest = client.post(lpUrl, Work.GETWORK_REQUEST, auth, 
+                                LongPoller.READ_TIMEOUT, true, true, this);
+      } else {
+        lpUrl = null;
+        lpRequest = null;
+      }
+    }
+    
+    @Override
+    public void handleResponse(HttpClient.Response response) {
+      try {
+        Work w = new Work(response, client, url, auth);
+        if (! running) {
+          run();
+          return;
+        }
+        curWork = w;
+        
+        notifyObservers(Notification.NEW_BLOCK_DETECTED);
+        notifyObservers(Notification.NEW_WORK);
+        run();
+      } catch (Exception e) {
+        failed();
+      }
+    }
+    
+    @Override
+    public void handleFailure(IOException e) {
+      if (e instanceof SocketTimeoutException) {
+        run();
+      } else {
+        failed();
+      }
+    }
+    
+    private void failed() {
+      if (! running) {
+        run();
+        return;
+      }
+      notifyObservers(Notification.LONG_POLLING_FAILED);
+      scheduler.schedule(this, retryPause);
+    }
+  }
+  
   private class WorkChecker implements Runnable {
     private int index;
     private int step;
@@ -223,26 +386,31 @@ public class Worker implements Runnable {
     @Override
     public void run() {
       try {
-        Hasher hasher = new Hasher();
+        ScratchpadArena arena = Worker.this.arena;
+        Hasher hasher = new Hasher(arena == null ? null : arena.allocate());
+        // warm up while the first work is being fetched instead of on real work
+        for (int i = 0; i < Hasher.WARMUP_HASHES && running && curWork == null; i++) {
+          hasher.warmUp(1);
+        }
         int nonce = index;
+        long hashCount = threadHashes.get(index); // the slot outlives this run
         while (running) {
           try {
-            if (curWork.meetsTarget(nonce, hasher)) {
-              scheduler.execute(new WorkSubmitter(curWork, nonce));
-              if (lpUrl == null) {
-                synchronized (Worker.this) {
-                  curWork = null;
-                  Worker.this.notify();
-                }
-              }
+            Work work = curWork;
+            if (work.meetsTarget(nonce, hasher)) {
+              shareFound(work, nonce);
             }
             nonce += step;
             hashes.incrementAndGet();
+            threadHashes.lazySet(index, ++hashCount);
           } catch (NullPointerException e) {
+            long start = System.nanoTime();
             try {
               Thread.sleep(1L);
             } catch (InterruptedException ie) {
               return; // let thread exit
+            } finally {
+              idleNanos.addAndGet(System.nanoTime() - start);
             }
           }
         }
@@ -266,6 +434,11 @@ public class Worker implements Runnable {
     public void run() {
       try {
         boolean result = work.submit(nonce);
+        if (result) {
+          acceptedShares.incrementAndGet();
+        } else {
+          rejectedShares.incrementAndGet();
+        }
         notifyObservers(result ? Notification.POW_TRUE : Notification.POW_FALSE);
       } catch (IOException e) {
         ExceptionUtils.handleException(e);
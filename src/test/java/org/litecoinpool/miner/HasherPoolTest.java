@@ -0,0 +1,81 @@
+package org.litecoinpool.miner;
+
+import static org.junit.Assert.*;
+
+import java.security.GeneralSecurityException;
+
+import org.junit.Test;
+
+public class HasherPoolTest {
+  @Test
+  public void reuseTest() throws Exception {
+    final HasherPool pool = new HasherPool(2);
+    assertEquals(2, pool.getIdleCount());
+    
+    Hasher a = pool.borrow();
+    assertEquals(1, pool.getIdleCount());
+    pool.release(a);
+    // a thread gets back the hasher it used last
+    assertTrue(a == pool.borrow());
+    
+    // while it is borrowed other threads get another one
+    final Hasher[] other = new Hasher[2];
+    Thread t = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          other[0] = pool.borrow();
+          other[1] = pool.borrow(); // none idle, so a new one
+        } catch (GeneralSecurityException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    t.start();
+    t.join();
+    assertTrue(other[0] != a);
+    assertTrue(other[1] != a && other[1] != other[0]);
+    assertEquals(0, pool.getIdleCount());
+    
+    pool.release(other[0]);
+    pool.release(other[1]);
+    pool.release(a);
+    assertEquals(3, pool.getIdleCount());
+    assertTrue(a == pool.borrow());
+  }
+  
+  @Test
+  public void arenaTest() throws Exception {
+    final HasherPool pool = new HasherPool(new ScratchpadArena());
+    // off-heap hashers are only created when borrowed
+    assertEquals(0, pool.getIdleCount());
+    Hasher a = pool.borrow();
+    pool.release(a);
+    assertEquals(1, pool.getIdleCount());
+    assertTrue(a == pool.borrow());
+    pool.release(a);
+
+    // other threads allocate their own rather than take an idle one from a live thread
+    final Hasher[] other = new Hasher[1];
+    Thread t = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          other[0] = pool.borrow();
+          pool.release(other[0]);
+        } catch (GeneralSecurityException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    t.start();
+    t.join();
+    assertTrue(other[0] != a);
+    assertEquals(2, pool.getIdleCount());
+
+    // once a thread is gone its hasher can be taken over
+    assertTrue(a == pool.borrow());
+    assertTrue(other[0] == pool.borrow());
+    assertEquals(0, pool.getIdleCount());
+  }
+}
@@ -0,0 +1,75 @@
+package org.litecoinpool.miner;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+public class HistoryRingTest {
+  @Test
+  public void wrapAndReopenTest() throws IOException {
+    File f = File.createTempFile("history", ".ring");
+    try {
+      HistoryRing ring = HistoryRing.open(f, 3, 2);
+      for (int i = 1; i <= 5; i++) {
+        ring.append(new HistoryRing.Record(1000L * i, 1000, new long[] { i, i * 10 }, 
+                                           i, 0, 1, 50, 2));
+      }
+      
+      List<HistoryRing.Record> records = HistoryRing.openForReading(f).read();
+      assertEquals(3, records.size());
+      for (int i = 0; i < 3; i++) {
+        HistoryRing.Record r = records.get(i);
+        assertEquals(i + 3, r.getSequence());
+        assertEquals(1000L * (i + 3), r.getTime());
+        assertEquals((i + 3) * 11, r.getHashes());
+        assertEquals(i + 3, r.getAcceptedShares());
+        assertEquals(50, r.getWorkFetchMillis());
+      }
+      
+      // reopening with the same layout keeps appending after the newest record
+      HistoryRing.open(f, 3, 2).append(new HistoryRing.Record(6000L, 1000, new long[2], 0, 0, 0, 0, 0));
+      records = HistoryRing.openForReading(f).read();
+      assertEquals(6, records.get(2).getSequence());
+      assertEquals(4, records.get(0).getSequence());
+      
+      // a different layout is refused rather than wiping the history
+      try {
+        HistoryRing.open(f, 3, 4);
+        fail("Should not have opened a ring with another layout");
+      } catch (IOException e) {
+        // expected
+      }
+      assertEquals(3, HistoryRing.openForReading(f).read().size());
+    } finally {
+      f.delete();
+    }
+  }
+  
+  @Test
+  public void refuseOtherFileTest() throws IOException {
+    File f = File.createTempFile("history", ".txt");
+    try {
+      FileOutputStream out = new FileOutputStream(f);
+      try {
+        out.write("not a history file".getBytes());
+      } finally {
+        out.close();
+      }
+      
+      try {
+        HistoryRing.open(f, 3, 2);
+        fail("Should not have opened another file");
+      } catch (IOException e) {
+        // expected
+      }
+      assertEquals(18, f.length());
+    } finally {
+      f.delete();
+    }
+  }
+}
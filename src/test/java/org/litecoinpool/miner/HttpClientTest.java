@@ -0,0 +1,382 @@
+package org.litecoinpool.miner;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class HttpClientTest {
+  private static final int TIMEOUT = 5000;
+
+  @Test
+  public void responseFramingTest() throws Exception {
+    TestServer server = new TestServer(new Responder() {
+      @Override
+      public String respond(int connection, int request, String body) {
+        if (body.equals("length")) {
+          return ok("content-length body");
+        } else if (body.equals("chunked")) {
+          return "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nX-Test: yes\r\n\r\n" +
+                 "8\r\nchunked \r\n4\r\nbody\r\n0\r\n\r\n";
+        } else {
+          return "HTTP/1.1 200 OK\r\nConnection: close\r\n\r\nclose-delimited body";
+        }
+      }
+    });
+    HttpClient client = new HttpClient();
+    client.start();
+    try {
+      HttpClient.Response r = client.post(server.url, "length", null, TIMEOUT, true);
+      assertEquals(200, r.getCode());
+      assertEquals("content-length body", r.getContent());
+
+      r = client.post(server.url, "chunked", null, TIMEOUT, true);
+      assertEquals("chunked body", r.getContent());
+      assertEquals("yes", r.getHeader("X-Test"));
+
+      r = client.post(server.url, "close", null, TIMEOUT, true);
+      assertEquals("close-delimited body", r.getContent());
+
+      // the closed connection is replaced
+      r = client.post(server.url, "length", null, TIMEOUT, true);
+      assertEquals("content-length body", r.getContent());
+      assertEquals(2, server.getConnectionCount());
+    } finally {
+      client.stop();
+      server.close();
+    }
+  }
+
+  @Test
+  public void keepAliveReuseTest() throws Exception {
+    TestServer server = new TestServer(new Responder() {
+      @Override
+      public String respond(int connection, int request, String body) {
+        return ok(body);
+      }
+    });
+    HttpClient client = new HttpClient();
+    client.start();
+    try {
+      for (int i = 0; i < 5; i++) {
+        assertEquals("request " + i,
+                     client.post(server.url, "request " + i, null, TIMEOUT, false).getContent());
+      }
+      assertEquals(1, server.getConnectionCount());
+      assertEquals(5, server.getRequestCount(0));
+    } finally {
+      client.stop();
+      server.close();
+    }
+  }
+
+  @Test
+  public void pipeliningDepthTest() throws Exception {
+    final CountDownLatch gate = new CountDownLatch(1);
+    final TestServer[] serverRef = new TestServer[1];
+    TestServer server = new TestServer(new Responder() {
+      @Override
+      public String respond(int connection, int request, String body) throws InterruptedException {
+        if (request == 0 && body.equals("warm")) {
+          // hold the first requests until each is on a connection of its own
+          serverRef[0].awaitConnections(4);
+        } else {
+          gate.await(TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+        return ok(body);
+      }
+    });
+    serverRef[0] = server;
+    HttpClient client = new HttpClient();
+    client.start();
+    try {
+      // open the connections, which can be pipelined onto once they have answered
+      TestCallback warm = new TestCallback(4);
+      for (int i = 0; i < 4; i++) {
+        client.post(server.url, "warm", null, TIMEOUT, false, true, warm);
+      }
+      assertTrue(warm.await());
+      assertEquals(4, warm.responses.get());
+      assertEquals(4, server.getConnectionCount());
+
+      // 4 connections take 4 requests each, the 17th request needs another connection
+      TestCallback held = new TestCallback(17);
+      for (int i = 0; i < 17; i++) {
+        client.post(server.url, "held", null, TIMEOUT, false, true, held);
+      }
+      server.awaitConnections(5);
+      gate.countDown();
+      assertTrue(held.await());
+      assertEquals(17, held.responses.get());
+      assertEquals(5, server.getConnectionCount());
+      for (int i = 0; i < 5; i++) {
+        assertTrue(server.getRequestCount(i) <= 5);
+      }
+    } finally {
+      gate.countDown();
+      client.stop();
+      server.close();
+    }
+  }
+
+  @Test
+  public void timeoutTest() throws Exception {
+    final CountDownLatch released = new CountDownLatch(1);
+    TestServer server = new TestServer(new Responder() {
+      @Override
+      public String respond(int connection, int request, String body) throws InterruptedException {
+        released.await();
+        return null;
+      }
+    });
+    HttpClient client = new HttpClient();
+    client.start();
+    try {
+      client.post(server.url, "never answered", null, 300, true);
+      fail("Request should have timed out");
+    } catch (SocketTimeoutException e) {
+      // expected
+    } finally {
+      released.countDown();
+      client.stop();
+      server.close();
+    }
+  }
+
+  @Test
+  public void retryTest() throws Exception {
+    // every connection answers its first request and is closed on the second
+    TestServer server = new TestServer(new Responder() {
+      @Override
+      public String respond(int connection, int request, String body) {
+        return request == 0 ? ok(body) : null;
+      }
+    });
+    HttpClient client = new HttpClient();
+    client.start();
+    try {
+      assertEquals("a", client.post(server.url, "a", null, TIMEOUT, true).getContent());
+      // the reused connection is closed without an answer, so this is retried once on a new one
+      assertEquals("b", client.post(server.url, "b", null, TIMEOUT, true).getContent());
+      assertEquals(2, server.getConnectionCount());
+
+      try {
+        client.post(server.url, "c", null, TIMEOUT, false);
+        fail("Request should not have been retried");
+      } catch (SocketTimeoutException e) {
+        fail("Request should have failed when the connection closed");
+      } catch (IOException e) {
+        // expected
+      }
+      assertEquals(2, server.getConnectionCount());
+      assertEquals(2, server.getRequestCount(1));
+    } finally {
+      client.stop();
+      server.close();
+    }
+  }
+
+  @Test
+  public void restartTest() throws Exception {
+    TestServer server = new TestServer(new Responder() {
+      @Override
+      public String respond(int connection, int request, String body) {
+        return ok(body);
+      }
+    });
+    HttpClient client = new HttpClient();
+    try {
+      for (int i = 0; i < 3; i++) {
+        client.start();
+        assertEquals("run " + i, client.post(server.url, "run " + i, null, TIMEOUT, true).getContent());
+        client.stop();
+      }
+      // each run closed its connection before the next one started
+      assertEquals(3, server.getConnectionCount());
+    } finally {
+      client.stop();
+      server.close();
+    }
+  }
+
+  @Test
+  public void proxyTest() throws Exception {
+    URL url = new URL("http://pool.example.com:9332/");
+    assertTrue(HttpClient.supports(url));
+    assertFalse(HttpClient.supports(new URL("https://pool.example.com/")));
+    String proxyHost = System.getProperty("http.proxyHost");
+    System.setProperty("http.proxyHost", "proxy.example.com");
+    try {
+      // proxied requests are left to HttpURLConnection
+      assertFalse(HttpClient.supports(url));
+      assertTrue(HttpClient.supports(new URL("http://127.0.0.1:9332/")));
+    } finally {
+      if (proxyHost == null) {
+        System.clearProperty("http.proxyHost");
+      } else {
+        System.setProperty("http.proxyHost", proxyHost);
+      }
+    }
+  }
+
+  private static String ok(String content) {
+    return "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n" +
+           "Content-Length: " + content.length() + "\r\n\r\n" + content;
+  }
+
+  private interface Responder {
+    // returns the raw response, or null to close the connection without answering
+    public String respond(int connection, int request, String body) throws Exception;
+  }
+
+  private static class TestCallback implements HttpClient.ResponseCallback {
+    private final CountDownLatch latch;
+    private final AtomicInteger responses = new AtomicInteger();
+
+    private TestCallback(int expected) {
+      latch = new CountDownLatch(expected);
+    }
+
+    @Override
+    public void handleResponse(HttpClient.Response response) {
+      responses.incrementAndGet();
+      latch.countDown();
+    }
+
+    @Override
+    public void handleFailure(IOException e) {
+      latch.countDown();
+    }
+
+    private boolean await() throws InterruptedException {
+      return latch.await(TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  // answers each connection on a thread of its own, reading requests one after another
+  private static class TestServer implements Runnable {
+    private final ServerSocket serverSocket;
+    private final Responder responder;
+    private final URL url;
+    private final List<Socket> sockets = new ArrayList<Socket>(); // only accessed while synchronized to this
+    private final List<AtomicInteger> requestCounts = new ArrayList<AtomicInteger>(); // only accessed while synchronized to this
+
+    private TestServer(Responder responder) throws IOException {
+      this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+      this.responder = responder;
+      this.url = new URL("http://127.0.0.1:" + serverSocket.getLocalPort() + "/");
+      Thread t = new Thread(this, "TestServer");
+      t.setDaemon(true);
+      t.start();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          final Socket s = serverSocket.accept();
+          final AtomicInteger requestCount = new AtomicInteger();
+          final int connection;
+          synchronized (this) {
+            connection = sockets.size();
+            sockets.add(s);
+            requestCounts.add(requestCount);
+            this.notifyAll();
+          }
+          Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+              handle(s, connection, requestCount);
+            }
+          }, "TestServer connection " + connection);
+          t.setDaemon(true);
+          t.start();
+        }
+      } catch (IOException e) {
+        // closed
+      }
+    }
+
+    private void handle(Socket s, int connection, AtomicInteger requestCount) {
+      try {
+        BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), "US-ASCII"));
+        OutputStream out = s.getOutputStream();
+        while (true) {
+          String line = in.readLine();
+          if (line == null) {
+            return;
+          }
+          int contentLength = 0;
+          while (line.length() > 0) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+              contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+            line = in.readLine();
+          }
+          char[] body = new char[contentLength];
+          for (int read = 0; read < contentLength; ) {
+            read += in.read(body, read, contentLength - read);
+          }
+          String response = responder.respond(connection, requestCount.getAndIncrement(),
+                                              new String(body));
+          if (response == null) {
+            return;
+          }
+          out.write(response.getBytes("US-ASCII"));
+          out.flush();
+          if (response.contains("Connection: close")) {
+            return;
+          }
+        }
+      } catch (Exception e) {
+        // connection done
+      } finally {
+        try {
+          s.close();
+        } catch (IOException e) {
+          // ignored
+        }
+      }
+    }
+
+    private synchronized int getConnectionCount() {
+      return sockets.size();
+    }
+
+    private synchronized int getRequestCount(int connection) {
+      return requestCounts.get(connection).get();
+    }
+
+    private synchronized void awaitConnections(int count) throws InterruptedException {
+      long end = System.currentTimeMillis() + TIMEOUT;
+      long remaining = TIMEOUT;
+      while (sockets.size() < count && remaining > 0) {
+        this.wait(remaining);
+        remaining = end - System.currentTimeMillis();
+      }
+    }
+
+    private void close() throws IOException {
+      serverSocket.close();
+      synchronized (this) {
+        for (Socket s : sockets) {
+          s.close();
+        }
+      }
+    }
+  }
+}
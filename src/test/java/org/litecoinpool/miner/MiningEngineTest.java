@@ -0,0 +1,145 @@
+package org.litecoinpool.miner;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.threadly.concurrent.PriorityScheduler;
+
+public class MiningEngineTest {
+  private static final long TIMEOUT = 10 * 1000; // ms
+  private static final long LONG_POLL_DELAY = 60 * 1000; // ms, long enough to never answer
+  private static final byte[] NO_SHARE_TARGET = new byte[32];
+
+  @Test
+  public void resizeTest() throws Exception {
+    GetworkResponder responder = new GetworkResponder(NO_SHARE_TARGET, LONG_POLL_DELAY);
+    responder.start();
+    HttpClient client = new HttpClient();
+    client.start();
+    PriorityScheduler scheduler = new PriorityScheduler(8, 8, 1000);
+    try {
+      HasherPool hashers = new HasherPool(0);
+      MiningEngine engine = new MiningEngine(scheduler, client, hashers, 20);
+      Worker w = engine.addWorker("a", responder.getUrl().toString(), null, 5000, 1000, 1);
+
+      // the futures complete once the threads are hashing, whether or not there is work yet
+      engine.start(2).get(TIMEOUT, TimeUnit.MILLISECONDS);
+      assertTrue(engine.isRunning());
+      assertEquals(2, engine.getThreadCount());
+      engine.resize(4).get(TIMEOUT, TimeUnit.MILLISECONDS);
+      assertEquals(0, hashers.getIdleCount());
+
+      // exiting threads return their hashers to the pool
+      engine.resize(1).get(TIMEOUT, TimeUnit.MILLISECONDS);
+      assertEquals(1, engine.getThreadCount());
+      assertEquals(3, hashers.getIdleCount());
+
+      long deadline = System.currentTimeMillis() + TIMEOUT;
+      while (w.getHashes() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertTrue(w.getHashes() > 0);
+
+      engine.stop().get(TIMEOUT, TimeUnit.MILLISECONDS);
+      assertFalse(engine.isRunning());
+      assertEquals(4, hashers.getIdleCount());
+      assertFalse(w.hasWork());
+
+      // a stopped engine can be started again
+      engine.start(1).get(TIMEOUT, TimeUnit.MILLISECONDS);
+      engine.stop().get(TIMEOUT, TimeUnit.MILLISECONDS);
+      assertEquals(4, hashers.getIdleCount());
+    } finally {
+      client.stop();
+      responder.close();
+      scheduler.shutdown();
+    }
+  }
+
+  @Test
+  public void startWhileStoppingTest() throws Exception {
+    GetworkResponder responder = new GetworkResponder(NO_SHARE_TARGET, LONG_POLL_DELAY);
+    responder.start();
+    HttpClient client = new HttpClient();
+    client.start();
+    PriorityScheduler scheduler = new PriorityScheduler(8, 8, 1000);
+    final CountDownLatch terminating = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    try {
+      MiningEngine engine = new MiningEngine(scheduler, client, new HasherPool(0), 20);
+      Worker w = engine.addWorker("a", responder.getUrl().toString(), null, 5000, 1000, 1);
+      w.addObserver(new Worker.WorkerListener() {
+        @Override
+        public void update(Worker.Notification n) {
+          if (n == Worker.Notification.TERMINATED) {
+            // hold the worker run open so the stop stays pending
+            terminating.countDown();
+            try {
+              release.await(TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        }
+      });
+      engine.start(2).get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+      Future<?> stopped = engine.stop();
+      assertTrue(terminating.await(TIMEOUT, TimeUnit.MILLISECONDS));
+      try {
+        engine.start(2);
+        fail("Should not start while stopping");
+      } catch (IllegalStateException e) {
+        // expected
+      }
+      assertFalse(stopped.isDone());
+
+      // the stop waits on the run it stopped and then allows a new start
+      release.countDown();
+      stopped.get(TIMEOUT, TimeUnit.MILLISECONDS);
+      engine.start(2).get(TIMEOUT, TimeUnit.MILLISECONDS);
+      engine.stop().get(TIMEOUT, TimeUnit.MILLISECONDS);
+    } finally {
+      release.countDown();
+      client.stop();
+      responder.close();
+      scheduler.shutdown();
+    }
+  }
+
+  @Test
+  public void weightedSplitTest() throws Exception {
+    GetworkResponder responder = new GetworkResponder(NO_SHARE_TARGET, LONG_POLL_DELAY);
+    responder.start();
+    HttpClient client = new HttpClient();
+    client.start();
+    PriorityScheduler scheduler = new PriorityScheduler(8, 8, 1000);
+    try {
+      MiningEngine engine = new MiningEngine(scheduler, client, new HasherPool(2), 20);
+      String url = responder.getUrl().toString();
+      Worker a = engine.addWorker("a", url, null, 5000, 1000, 1);
+      Worker b = engine.addWorker("b", url, null, 5000, 1000, 3);
+      engine.start(2).get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+      long deadline = System.currentTimeMillis() + TIMEOUT;
+      while ((a.getHashes() == 0 || b.getHashes() == 0) && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      long startA = a.getHashes();
+      long startB = b.getHashes();
+      Thread.sleep(2000);
+      double ratio = (double) (b.getHashes() - startB) / Math.max(1, a.getHashes() - startA);
+      engine.stop().get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+      assertTrue("Unexpected split 1:" + ratio, ratio > 2.2 && ratio < 3.8);
+    } finally {
+      client.stop();
+      responder.close();
+      scheduler.shutdown();
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package org.litecoinpool.miner;
+
+import static org.junit.Assert.*;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.litecoinpool.miner.ShareValidator.Result;
+import org.litecoinpool.miner.ShareValidator.Share;
+import org.threadly.concurrent.PriorityScheduler;
+
+public class ShareValidatorTest {
+  private static final byte[] HEADER = Work.hexStringToByteArray("01000000f615f7ce3b4fc6b8f61e8f89aedb1d0852507650533a9e3b10b9bbcc30639f279fcaa86746e1ef52d3edb3c4ad8259920d509bd073605c9bf1d59983752a6b06b817bb4ea78e011d012d59d4");
+  private static final int NONCE = HEADER[76] | HEADER[77] << 8 | HEADER[78] << 16 | HEADER[79] << 24;
+  // hash of HEADER is d9eb...c81001000000 (little-endian)
+  private static final byte[] PASSING_TARGET = Work.hexStringToByteArray("00000000000000000000000000000000000000000000000000000000ff000000");
+  private static final byte[] FAILING_TARGET = Work.hexStringToByteArray("0000000000000000000000000000000000000000000000000000000001000000");
+
+  @Test
+  public void validateBatchTest() throws GeneralSecurityException, InterruptedException {
+    PriorityScheduler scheduler = new PriorityScheduler(4, 4, 1000);
+    try {
+      ShareValidator validator = new ShareValidator(scheduler, 4);
+      List<Share> shares = new ArrayList<Share>();
+      shares.add(new Share(HEADER, NONCE, PASSING_TARGET));
+      for (int i = 1; i <= 8; i++) {
+        shares.add(new Share(HEADER, NONCE + i, FAILING_TARGET));
+      }
+      shares.add(new Share(HEADER, NONCE, PASSING_TARGET));
+
+      List<Result> results = validator.validate(shares);
+
+      assertEquals(shares.size(), results.size());
+      assertEquals(Result.VALID, results.get(0));
+      for (int i = 1; i <= 8; i++) {
+        assertEquals(Result.INVALID, results.get(i));
+      }
+      assertEquals(Result.DUPLICATE, results.get(9));
+      // previously seen shares are duplicates in later batches too
+      assertEquals(Result.DUPLICATE, validator.validate(new Share(HEADER, NONCE + 1, PASSING_TARGET)));
+    } finally {
+      scheduler.shutdown();
+    }
+  }
+
+  @Test
+  public void cacheBoundTest() throws GeneralSecurityException, InterruptedException {
+    PriorityScheduler scheduler = new PriorityScheduler(1, 1, 1000);
+    try {
+      ShareValidator validator = new ShareValidator(scheduler, 1, 1);
+      assertEquals(Result.INVALID, validator.validate(new Share(HEADER, NONCE + 1, FAILING_TARGET)));
+      assertEquals(Result.VALID, validator.validate(new Share(HEADER, NONCE, PASSING_TARGET)));
+      // the first share was pushed out of the cache
+      assertEquals(Result.INVALID, validator.validate(new Share(HEADER, NONCE + 1, FAILING_TARGET)));
+    } finally {
+      scheduler.shutdown();
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package org.litecoinpool.miner;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.Test;
+import org.threadly.concurrent.PriorityScheduler;
+
+public class ValidatorServerTest {
+  private static final int TIMEOUT = 10 * 1000; // ms
+  private static final String HEADER = "01000000f615f7ce3b4fc6b8f61e8f89aedb1d0852507650533a9e3b10b9bbcc30639f279fcaa86746e1ef52d3edb3c4ad8259920d509bd073605c9bf1d59983752a6b06b817bb4ea78e011d012d59d4";
+  private static final String NONCE = "d4592d01"; // bytes 76 to 79 of HEADER as a little-endian int
+  private static final String PASSING_TARGET = "00000000000000000000000000000000000000000000000000000000ff000000";
+  private static final String FAILING_TARGET = "0000000000000000000000000000000000000000000000000000000001000000";
+
+  @Test
+  public void mixedBatchTest() throws Exception {
+    PriorityScheduler validationScheduler = new PriorityScheduler(2, 2, 1000);
+    // connections must not run on the scheduler the validator hashes on
+    PriorityScheduler connectionScheduler = new PriorityScheduler(1, 1, 1000);
+    ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    ValidatorServer server = startServer(connectionScheduler, validationScheduler, serverSocket);
+    try {
+      Socket socket = connect(serverSocket);
+      try {
+        String[] results = sendBatch(socket, new String[] {
+          HEADER + " " + NONCE + " " + PASSING_TARGET,
+          HEADER + " d4592d02 " + FAILING_TARGET,
+          HEADER + " d4592dzz " + PASSING_TARGET,
+          HEADER + " " + NONCE,
+          HEADER + " d4592d03 " + FAILING_TARGET,
+          HEADER + " " + NONCE + " " + PASSING_TARGET
+        });
+
+        // parse errors keep their place between the validated shares
+        assertEquals(6, results.length);
+        assertEquals("VALID", results[0]);
+        assertEquals("INVALID", results[1]);
+        assertEquals("ERROR Invalid hex: d4592dzz", results[2]);
+        assertEquals("ERROR Expected HEADER NONCE TARGET", results[3]);
+        assertEquals("INVALID", results[4]);
+        assertEquals("DUPLICATE", results[5]);
+      } finally {
+        socket.close();
+      }
+    } finally {
+      server.stop();
+      connectionScheduler.shutdown();
+      validationScheduler.shutdown();
+    }
+  }
+
+  @Test
+  public void batchLimitTest() throws Exception {
+    PriorityScheduler validationScheduler = new PriorityScheduler(2, 2, 1000);
+    // connections must not run on the scheduler the validator hashes on
+    PriorityScheduler connectionScheduler = new PriorityScheduler(1, 1, 1000);
+    ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    ValidatorServer server = startServer(connectionScheduler, validationScheduler, serverSocket);
+    try {
+      Socket socket = connect(serverSocket);
+      try {
+        StringBuilder longLine = new StringBuilder();
+        while (longLine.length() < 100 * 1000) {
+          longLine.append(HEADER);
+        }
+        String[] lines = new String[10001];
+        lines[0] = longLine.toString();
+        for (int i = 1; i < lines.length; i++) {
+          lines[i] = "x";
+        }
+        String[] results = sendBatch(socket, lines);
+
+        assertEquals(lines.length, results.length);
+        assertEquals("ERROR Line too long", results[0]);
+        assertEquals("ERROR Expected HEADER NONCE TARGET", results[9999]);
+        assertEquals("ERROR Batch too large", results[10000]);
+
+        // the connection is still usable afterwards
+        results = sendBatch(socket, new String[] { HEADER + " " + NONCE + " " + PASSING_TARGET });
+        assertEquals(1, results.length);
+        assertEquals("VALID", results[0]);
+      } finally {
+        socket.close();
+      }
+    } finally {
+      server.stop();
+      connectionScheduler.shutdown();
+      validationScheduler.shutdown();
+    }
+  }
+
+  private static ValidatorServer startServer(PriorityScheduler connectionScheduler,
+                                             PriorityScheduler validationScheduler,
+                                             ServerSocket serverSocket) {
+    ValidatorServer server = new ValidatorServer(connectionScheduler,
+                                                 new ShareValidator(validationScheduler, 2),
+                                                 serverSocket);
+    Thread t = new Thread(server, "ValidatorServer");
+    t.setDaemon(true);
+    t.start();
+    return server;
+  }
+
+  private static Socket connect(ServerSocket serverSocket) throws Exception {
+    Socket socket = new Socket("127.0.0.1", serverSocket.getLocalPort());
+    socket.setSoTimeout(TIMEOUT);
+    return socket;
+  }
+
+  private static String[] sendBatch(Socket socket, String[] lines) throws Exception {
+    Writer out = new OutputStreamWriter(socket.getOutputStream(), "US-ASCII");
+    for (String line : lines) {
+      out.write(line);
+      out.write('\n');
+    }
+    out.write('\n');
+    out.flush();
+
+    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+    StringBuilder response = new StringBuilder();
+    String line;
+    while ((line = in.readLine()) != null && line.length() > 0) {
+      response.append(line).append('\n');
+    }
+    return response.toString().split("\n");
+  }
+}
@@ -16,4 +16,16 @@ public class WorkTest {
     assertEquals("d9eb8663ffec241c2fb118adb7de97a82c803b6ff46d57667935c81001000000", 
                  Work.byteArrayToHexString(hash));
   }
+  
+  @Test
+  public void offHeapHashTest() throws GeneralSecurityException {
+    ScratchpadArena arena = new ScratchpadArena(2);
+    arena.allocate(); // so the tested scratchpad does not start at the chunk start
+    byte[] header = Work.hexStringToByteArray("01000000f615f7ce3b4fc6b8f61e8f89aedb1d0852507650533a9e3b10b9bbcc30639f279fcaa86746e1ef52d3edb3c4ad8259920d509bd073605c9bf1d59983752a6b06b817bb4ea78e011d012d59d4");
+    byte[] hash = new Hasher(arena.allocate()).hash(header, header[76] | header[77] << 8 | 
+                                                    header[78] << 16 | header[79] << 24);
+    
+    assertEquals("d9eb8663ffec241c2fb118adb7de97a82c803b6ff46d57667935c81001000000", 
+                 Work.byteArrayToHexString(hash));
+  }
 }